@@ -0,0 +1,43 @@
+package chessai;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of the benchmarks jar. Runs the JMH benchmarks
+ * selected on the command line, taking the same options as
+ * JMH's own launcher, and always attaches the GC profiler so
+ * that the allocation rate is reported next to ops/sec.
+ * Usage: java -jar benchmarks/target/benchmarks.jar [regexp] [JMH options]
+ *
+ * @author Richard Hu
+ */
+public class Benchmarks {
+
+    /**
+     * Runs the benchmarks.
+     *
+     * @param args JMH command line options.
+     * @throws CommandLineOptionException If ARGS are not valid options.
+     * @throws RunnerException If a benchmark fails.
+     * @throws IOException If the help cannot be printed.
+     */
+    public static void main(String... args)
+            throws CommandLineOptionException, RunnerException, IOException {
+        CommandLineOptions cmd = new CommandLineOptions(args);
+        if (cmd.shouldHelp()) {
+            cmd.showHelp();
+            return;
+        }
+        new Runner(new OptionsBuilder()
+                .parent(cmd)
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
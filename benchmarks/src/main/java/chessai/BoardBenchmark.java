@@ -0,0 +1,218 @@
+package chessai;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the Board operations used by search, on an
+ * opening, a middlegame and an endgame position. Board caches
+ * its possible moves, check status and outcome, so each
+ * benchmark clears the caches first and measures the work
+ * done the first time a position is visited.
+ *
+ * @author Richard Hu
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BoardBenchmark {
+
+    /**
+     * Position to benchmark: opening, middlegame or endgame.
+     */
+    @Param({"opening", "middlegame", "endgame"})
+    public String position;
+
+    /**
+     * Sets up the board and its moves.
+     */
+    @Setup
+    public void setup() {
+        _board = new Board(switch (position) {
+            case "opening" -> OPENING;
+            case "middlegame" -> MIDDLEGAME;
+            case "endgame" -> ENDGAME;
+            default -> throw new IllegalArgumentException("Unknown position: " + position);
+        });
+        _moves = _board.possibleMoves(_board.turn()).toArray(new Move[0]);
+        _packed = new int[Board.MAX_MOVES];
+        _captures = Arrays.copyOf(_packed, _board.tacticalMoves(_packed));
+    }
+
+    /**
+     * Generates the possible moves set of the side to move.
+     *
+     * @return Number of moves.
+     */
+    @Benchmark
+    public int possibleMoves() {
+        _board.clearCaches();
+        return _board.possibleMoves(_board.turn()).size();
+    }
+
+    /**
+     * Generates the legal moves of the side to move
+     * into an array.
+     *
+     * @return Number of moves.
+     */
+    @Benchmark
+    public int legalMoves() {
+        return _board.legalMoves(_packed);
+    }
+
+    /**
+     * Checks whether a move is legal.
+     *
+     * @return Whether it is legal.
+     */
+    @Benchmark
+    public boolean isLegal() {
+        _board.clearCaches();
+        return _board.isLegal(nextMove());
+    }
+
+    /**
+     * Makes a move and takes it back.
+     *
+     * @return Whether the undo succeeded.
+     */
+    @Benchmark
+    public boolean makeMoveUndo() {
+        _board.makeMove(nextMove());
+        return _board.undo();
+    }
+
+    /**
+     * Copies the board.
+     *
+     * @return The copy.
+     */
+    @Benchmark
+    public Board copy() {
+        return _board.copy();
+    }
+
+    /**
+     * Finds whether the side to move is in check.
+     *
+     * @return Whether it is in check.
+     */
+    @Benchmark
+    public boolean inCheck() {
+        _board.clearCaches();
+        return _board.inCheck(_board.turn());
+    }
+
+    /**
+     * Finds the outcome of the game.
+     *
+     * @return The outcome.
+     */
+    @Benchmark
+    public char outcome() {
+        _board.clearCaches();
+        return _board.outcome();
+    }
+
+    /**
+     * Picks a random legal move, as in a light MCTS playout.
+     *
+     * @return Packed move.
+     */
+    @Benchmark
+    public int randomMove() {
+        _board.clearCaches();
+        return _board.randomMove(_random, _packed);
+    }
+
+    /**
+     * Evaluates the exchange started by a capture.
+     *
+     * @return Material balance of the exchange.
+     */
+    @Benchmark
+    public int see() {
+        _j = _j + 1 >= _captures.length ? 0 : _j + 1;
+        return _captures.length == 0 ? 0 : _board.see(_captures[_j]);
+    }
+
+    /**
+     * Evaluates the position after a move, reading the
+     * running piece-square totals.
+     *
+     * @return Score for the side to move.
+     */
+    @Benchmark
+    public int evaluate() {
+        _board.makeMove(nextMove());
+        int score = _board.evaluate();
+        _board.undo();
+        return score;
+    }
+
+    /**
+     * Returns the next of the position's moves, in turn.
+     *
+     * @return A legal move.
+     */
+    private Move nextMove() {
+        _i = _i + 1 == _moves.length ? 0 : _i + 1;
+        return _moves[_i];
+    }
+
+    /**
+     * The positions: the Ruy Lopez after 3. Bb5, "Kiwipete",
+     * and a rook endgame, all from the perft reference set
+     * or standard opening theory.
+     */
+    static final String OPENING = "r1bqkbnr/pppp1ppp/2n5/1B2p3/4P3/5N2/PPPP1PPP/RNBQK2R b KQkq - 3 3",
+            MIDDLEGAME = Perft.REFERENCE_FENS[1],
+            ENDGAME = Perft.REFERENCE_FENS[2];
+
+    /**
+     * Board under test.
+     */
+    private Board _board;
+
+    /**
+     * Legal moves of the position.
+     */
+    private Move[] _moves;
+
+    /**
+     * Array to generate packed moves into.
+     */
+    private int[] _packed;
+
+    /**
+     * Captures and promotions of the position.
+     */
+    private int[] _captures;
+
+    /**
+     * Source of randomness for randomMove.
+     */
+    private final Random _random = new Random(0);
+
+    /**
+     * Index of the last move and capture used.
+     */
+    private int _i, _j;
+}
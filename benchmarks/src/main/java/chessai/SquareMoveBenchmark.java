@@ -0,0 +1,128 @@
+package chessai;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static chessai.Square.*;
+import static chessai.Move.*;
+
+/**
+ * Benchmarks of the Square and Move lookups that move
+ * generation and parsing lean on. Each operation cycles
+ * through a fixed sequence of squares so that the JIT
+ * cannot fold the lookups into constants.
+ *
+ * @author Richard Hu
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SquareMoveBenchmark {
+
+    /**
+     * Looks up a square by name.
+     *
+     * @return The square.
+     */
+    @Benchmark
+    public Square sqString() {
+        return sq(NAMES[next()]);
+    }
+
+    /**
+     * Steps from a square in a direction.
+     *
+     * @return The destination square, or null.
+     */
+    @Benchmark
+    public Square moveDest() {
+        int i = next();
+        return ALL_SQUARES[i].moveDest(i & 7, 1 + (i >>> 3 & 3));
+    }
+
+    /**
+     * Finds the direction between two squares.
+     *
+     * @return The direction.
+     */
+    @Benchmark
+    public int direction() {
+        int i = next();
+        return ALL_SQUARES[i].direction(ALL_SQUARES[TARGETS[i]]);
+    }
+
+    /**
+     * Looks up a capture move by its squares.
+     *
+     * @return The move.
+     */
+    @Benchmark
+    public Move mvSquares() {
+        int i = next();
+        return mv(ALL_SQUARES[i], ALL_SQUARES[TARGETS[i]], 'Q');
+    }
+
+    /**
+     * Parses a move.
+     *
+     * @return The move.
+     */
+    @Benchmark
+    public Move mvString() {
+        return mv(MOVES[next()]);
+    }
+
+    /**
+     * Returns the index of the next square in the sequence.
+     *
+     * @return Square index.
+     */
+    private int next() {
+        _i = (_i + 1) & (NUM_SQUARES - 1);
+        return _i;
+    }
+
+    /**
+     * Number of squares.
+     */
+    private static final int NUM_SQUARES = Board.NUM_SQUARES;
+
+    /**
+     * Names of all squares, and a move from each square
+     * in String format.
+     */
+    private static final String[] NAMES = new String[NUM_SQUARES],
+            MOVES = new String[NUM_SQUARES];
+
+    /**
+     * Index of a square on the same row as each square,
+     * so that every pair is a possible move.
+     */
+    private static final int[] TARGETS = new int[NUM_SQUARES];
+
+    static {
+        for (Square s : ALL_SQUARES) {
+            int i = s.index();
+            TARGETS[i] = (i & ~7) | ((i + 3) & 7);
+            NAMES[i] = s.toString();
+            MOVES[i] = s + "-" + ALL_SQUARES[TARGETS[i]];
+        }
+    }
+
+    /**
+     * Position in the sequence of squares.
+     */
+    private int _i;
+}
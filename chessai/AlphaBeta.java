@@ -0,0 +1,673 @@
+package chessai;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static chessai.Move.*;
+import static chessai.TranspositionTable.*;
+
+/**
+ * Iterative-deepening alpha-beta search. Each iteration runs
+ * a negamax principal variation search, starting from the
+ * second iteration on inside an aspiration window around the
+ * previous score, and ends every line in a quiescence search
+ * over captures and promotions. Results are kept in a
+ * TranspositionTable, whose best moves are searched first
+ * by later iterations, and moves are generated lazily in
+ * stages by a MovePicker at each ply.
+ *
+ * @author Richard Hu
+ */
+public class AlphaBeta {
+
+    /**
+     * Bound on all scores, and the score of being checkmated
+     * at the root. Being mated N plies from the root scores
+     * N - MATE.
+     */
+    static final int INFINITY = 32000, MATE = 30000;
+
+    /**
+     * Maximum number of plies searched from the root.
+     */
+    static final int MAX_PLY = 128;
+
+    /**
+     * Bound on static evaluations, below the scores that
+     * are read as mates.
+     */
+    static final int MAX_EVALUATION = MATE - MAX_PLY - 1;
+
+    /**
+     * Half-width of the first aspiration window in centipawns.
+     */
+    static final int ASPIRATION_WINDOW = 40;
+
+    /**
+     * History score at which all history scores are halved.
+     */
+    static final int MAX_HISTORY = 1 << 20;
+
+    /**
+     * Size of the pawn structure cache of each searcher
+     * in megabytes.
+     */
+    static final int PAWN_TABLE_MEGABYTES = 1;
+
+    /**
+     * Material values of each piece type in centipawns,
+     * used to order captures.
+     */
+    static final int[] PIECE_VALUES = {100, 320, 330, 500, 900, 0};
+
+    /**
+     * Creates a searcher using TABLE. A search stops at the
+     * first limit reached; a limit of 0 means no limit, but
+     * at least one must be set.
+     *
+     * @param table Transposition table.
+     * @param timeLimit Maximum time per search in milliseconds.
+     * @param nodeLimit Maximum nodes per search.
+     * @param depthLimit Maximum depth per search.
+     */
+    AlphaBeta(TranspositionTable table, long timeLimit, long nodeLimit, int depthLimit) {
+        if (timeLimit <= 0 && nodeLimit <= 0 && depthLimit <= 0) {
+            throw new IllegalArgumentException("A time, node or depth limit is required.");
+        }
+        _table = table;
+        _timeLimit = timeLimit;
+        _nodeLimit = nodeLimit;
+        _depthLimit = depthLimit > 0 ? Math.min(depthLimit, MAX_PLY - 1) : MAX_PLY - 1;
+    }
+
+    /**
+     * Prints a line with the depth, score, nodes, speed and
+     * principal variation to OUT after every iteration.
+     *
+     * @param out Stream to print to, or null for none.
+     */
+    void setOutput(PrintStream out) {
+        _out = out;
+    }
+
+    /**
+     * Makes this searcher a helper of a main searcher that
+     * searches the same position with the same table. A helper
+     * searches every iteration DEPTHOFFSET plies deeper than
+     * its number so that helpers spread out over the depths,
+     * and also stops as soon as STOP is set.
+     *
+     * @param stop Flag set when the main search ends.
+     * @param depthOffset Extra depth per iteration.
+     */
+    void setHelper(AtomicBoolean stop, int depthOffset) {
+        _stopSignal = stop;
+        _depthOffset = depthOffset;
+    }
+
+    /**
+     * Leaves aging the table at the start of each search to
+     * the caller, as when searchers share it and it must be
+     * aged once before any of them stores into it.
+     */
+    void shareTable() {
+        _agesTable = false;
+    }
+
+    /**
+     * Searches the position on BOARD by iterative deepening
+     * until a limit is reached, keeping the result of the
+     * deepest completed iteration. If the limit is reached
+     * during the first iteration, only the best move found
+     * so far is kept, with no score or depth.
+     *
+     * @param board Board to search. Left unchanged.
+     * @return Best move as a packed move, or 0 if the
+     * side to move has none.
+     */
+    int search(Board board) {
+        if (_board != board) {
+            for (int ply = 0; ply < MAX_PLY; ply++) {
+                if (_pickers[ply] == null) {
+                    _pickers[ply] = new MovePicker(board, _history);
+                } else {
+                    _pickers[ply].setBoard(board);
+                }
+            }
+        }
+        _board = board;
+        _nodes = 0;
+        _stopped = false;
+        _start = System.nanoTime();
+        _deadline = _timeLimit > 0 ? _start + _timeLimit * 1_000_000 : Long.MAX_VALUE;
+        if (_agesTable) {
+            _table.newSearch();
+        }
+        for (int[] killers : _killers) {
+            Arrays.fill(killers, 0);
+        }
+        Arrays.fill(_history, 0);
+        _bestMove = 0;
+        _score = 0;
+        _depth = 0;
+        _pv = new int[0];
+
+        int score = 0;
+        for (int iteration = 1; iteration <= _depthLimit; iteration++) {
+            int depth = Math.min(iteration + _depthOffset, _depthLimit);
+            score = aspiration(depth, score);
+            if (_stopped) {
+                if (_bestMove == 0 && _pvLength[0] > 0) {
+                    _bestMove = _pvMoves[0][0];
+                    _pv = new int[] {_bestMove};
+                }
+                break;
+            }
+            if (_pvLength[0] > 0) {
+                _bestMove = _pvMoves[0][0];
+                _pv = Arrays.copyOf(_pvMoves[0], _pvLength[0]);
+                _score = score;
+                _depth = depth;
+                report();
+            }
+            if (_stopped || _bestMove == 0 || (_timeLimit > 0
+                    && System.nanoTime() - _start > _timeLimit * 500_000)) {
+                break;
+            }
+            if (Math.abs(_score) >= MATE - MAX_PLY && depth >= MATE - Math.abs(_score)) {
+                break;
+            }
+        }
+        return _bestMove;
+    }
+
+    /**
+     * Returns the score of the last search.
+     *
+     * @return Score in centipawns for the side to move.
+     */
+    int score() {
+        return _score;
+    }
+
+    /**
+     * Returns the depth of the last completed iteration.
+     *
+     * @return Depth in plies.
+     */
+    int depth() {
+        return _depth;
+    }
+
+    /**
+     * Returns the number of nodes of the last search.
+     *
+     * @return Nodes searched.
+     */
+    long nodes() {
+        return _nodes;
+    }
+
+    /**
+     * Returns the pawn structure cache of this searcher,
+     * whose statistics cover all of its searches.
+     *
+     * @return Pawn table.
+     */
+    PawnTable pawns() {
+        return _pawns;
+    }
+
+    /**
+     * Returns the principal variation of the last search.
+     *
+     * @return Packed moves of the principal variation.
+     */
+    int[] pv() {
+        return _pv.clone();
+    }
+
+    /**
+     * Searches the root to DEPTH, within a window around
+     * PREVIOUS that is widened until the score falls inside.
+     *
+     * @param depth Depth in plies.
+     * @param previous Score of the previous iteration.
+     * @return Score of the root.
+     */
+    private int aspiration(int depth, int previous) {
+        if (depth < 4) {
+            return negamax(depth, -INFINITY, INFINITY, 0);
+        }
+        int delta = ASPIRATION_WINDOW;
+        int alpha = Math.max(previous - delta, -INFINITY),
+                beta = Math.min(previous + delta, INFINITY);
+        while (true) {
+            int score = negamax(depth, alpha, beta, 0);
+            if (_stopped) {
+                return score;
+            }
+            if (score <= alpha) {
+                alpha = Math.max(score - delta, -INFINITY);
+            } else if (score >= beta) {
+                beta = Math.min(score + delta, INFINITY);
+            } else {
+                return score;
+            }
+            delta *= 2;
+        }
+    }
+
+    /**
+     * Principal variation search of the current position.
+     * The first move is searched with the full window and
+     * the rest with a null window, re-searching those that
+     * turn out better.
+     *
+     * @param depth Remaining depth in plies.
+     * @param alpha Lower bound of the window.
+     * @param beta Upper bound of the window.
+     * @param ply Distance from the root.
+     * @return Score for the side to move.
+     */
+    private int negamax(int depth, int alpha, int beta, int ply) {
+        _pvLength[ply] = 0;
+        boolean inCheck = _board.inCheck(_board.turn());
+        if (inCheck) {
+            depth++;
+        }
+        if (depth <= 0) {
+            return quiesce(alpha, beta, ply);
+        }
+        if (stopped()) {
+            return 0;
+        }
+        _nodes++;
+
+        long hash = _board.hash();
+        _hashes[ply] = hash;
+        if (ply > 0) {
+            if (isRepetition(ply)) {
+                return 0;
+            }
+            if (ply >= MAX_PLY - 1) {
+                return evaluate();
+            }
+        }
+
+        int tableMove = 0;
+        long entry = _table.probe(hash);
+        if (entry != 0) {
+            tableMove = TranspositionTable.move(entry);
+            if (beta - alpha == 1 && TranspositionTable.depth(entry) >= depth) {
+                int score = fromTable(TranspositionTable.score(entry), ply);
+                int bound = TranspositionTable.bound(entry);
+                if (bound == EXACT || (bound == LOWER && score >= beta)
+                        || (bound == UPPER && score <= alpha)) {
+                    return score;
+                }
+            }
+        }
+
+        MovePicker picker = _pickers[ply];
+        picker.init(tableMove, _killers[ply][0], _killers[ply][1], false);
+        int best = -INFINITY, bestMove = 0, bound = UPPER;
+        for (int move = picker.next(); move != 0; move = picker.next()) {
+            _board.makeMove(move);
+            int score;
+            if (picker.picked() == 1) {
+                score = -negamax(depth - 1, -beta, -alpha, ply + 1);
+            } else {
+                score = -negamax(depth - 1, -alpha - 1, -alpha, ply + 1);
+                if (score > alpha && score < beta) {
+                    score = -negamax(depth - 1, -beta, -alpha, ply + 1);
+                }
+            }
+            _board.undo();
+            if (_stopped) {
+                return 0;
+            }
+
+            if (score > best) {
+                best = score;
+                bestMove = move;
+                if (score > alpha) {
+                    alpha = score;
+                    bound = EXACT;
+                    updatePv(ply, move);
+                    if (score >= beta) {
+                        bound = LOWER;
+                        if (!isCapture(move) && getPromotion(move) < 0) {
+                            addKiller(ply, move);
+                            addHistory(move, depth);
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+        if (picker.picked() == 0) {
+            return inCheck ? ply - MATE : 0;
+        }
+        _table.store(hash, depth, bound, toTable(best, ply), bestMove);
+        return best;
+    }
+
+    /**
+     * Searches captures and promotions until the position
+     * is quiet, letting the side to move stand pat on its
+     * static evaluation unless it is in check, in which case
+     * all moves are searched. Otherwise captures that lose
+     * material by static exchange evaluation are skipped,
+     * and stalemates go unnoticed.
+     *
+     * @param alpha Lower bound of the window.
+     * @param beta Upper bound of the window.
+     * @param ply Distance from the root.
+     * @return Score for the side to move.
+     */
+    private int quiesce(int alpha, int beta, int ply) {
+        _pvLength[ply] = 0;
+        if (stopped()) {
+            return 0;
+        }
+        _nodes++;
+
+        if (ply >= MAX_PLY - 1) {
+            return evaluate();
+        }
+
+        boolean inCheck = _board.inCheck(_board.turn());
+        int best = -INFINITY;
+        if (!inCheck) {
+            best = evaluate();
+            if (best >= beta) {
+                return best;
+            }
+            alpha = Math.max(alpha, best);
+        }
+
+        MovePicker picker = _pickers[ply];
+        picker.init(0, 0, 0, !inCheck);
+        for (int move = picker.next(); move != 0; move = picker.next()) {
+            _board.makeMove(move);
+            int score = -quiesce(-beta, -alpha, ply + 1);
+            _board.undo();
+            if (_stopped) {
+                return 0;
+            }
+            if (score > best) {
+                best = score;
+                if (score > alpha) {
+                    alpha = score;
+                    updatePv(ply, move);
+                    if (score >= beta) {
+                        break;
+                    }
+                }
+            }
+        }
+        if (inCheck && picker.picked() == 0) {
+            return ply - MATE;
+        }
+        return best;
+    }
+
+    /**
+     * Evaluates the current position with the board's neural
+     * network if it has one, and with the piece-square tables
+     * and pawn structure cache otherwise. The network's score
+     * is not bounded by its weights, so it is clamped to
+     * MAX_EVALUATION lest it pass for a mate.
+     *
+     * @return Score in centipawns for the side to move.
+     */
+    private int evaluate() {
+        if (_board.network() == null) {
+            return _board.evaluate(_pawns);
+        }
+        return Math.max(-MAX_EVALUATION, Math.min(MAX_EVALUATION, _board.evaluateNetwork()));
+    }
+
+    /**
+     * Remembers a quiet move that caused a cutoff at PLY.
+     *
+     * @param ply Distance from the root.
+     * @param move Packed move.
+     */
+    private void addKiller(int ply, int move) {
+        int[] killers = _killers[ply];
+        if (killers[0] != move) {
+            killers[1] = killers[0];
+            killers[0] = move;
+        }
+    }
+
+    /**
+     * Raises the history score of a quiet move that caused
+     * a cutoff at DEPTH by the square of DEPTH, halving all
+     * scores when one grows too large.
+     *
+     * @param move Packed move.
+     * @param depth Remaining depth in plies.
+     */
+    private void addHistory(int move, int depth) {
+        int index = getFrom(move) * Board.NUM_SQUARES + getTo(move);
+        _history[index] += depth * depth;
+        if (_history[index] > MAX_HISTORY) {
+            for (int i = 0; i < _history.length; i++) {
+                _history[i] /= 2;
+            }
+        }
+    }
+
+    /**
+     * Makes MOVE followed by the principal variation
+     * of PLY + 1 the principal variation of PLY.
+     *
+     * @param ply Distance from the root.
+     * @param move Packed move.
+     */
+    private void updatePv(int ply, int move) {
+        int[] pv = _pvMoves[ply];
+        pv[0] = move;
+        System.arraycopy(_pvMoves[ply + 1], 0, pv, 1, _pvLength[ply + 1]);
+        _pvLength[ply] = _pvLength[ply + 1] + 1;
+    }
+
+    /**
+     * TRUE iff the position at PLY already occurred earlier
+     * in the line being searched with the same side to move.
+     *
+     * @param ply Distance from the root.
+     * @return Whether the position repeats.
+     */
+    private boolean isRepetition(int ply) {
+        for (int i = ply - 2; i >= 0; i -= 2) {
+            if (_hashes[i] == _hashes[ply]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Converts a score at PLY to be relative to the position
+     * it is stored for, so mate scores stay correct when the
+     * position is reached at another distance from the root.
+     *
+     * @param score Score relative to the root.
+     * @param ply Distance from the root.
+     * @return Score to store.
+     */
+    private static int toTable(int score, int ply) {
+        if (score >= MATE - MAX_PLY) {
+            return score + ply;
+        } else if (score <= MAX_PLY - MATE) {
+            return score - ply;
+        }
+        return score;
+    }
+
+    /**
+     * Inverse of toTable.
+     *
+     * @param score Stored score.
+     * @param ply Distance from the root.
+     * @return Score relative to the root.
+     */
+    private static int fromTable(int score, int ply) {
+        if (score >= MATE - MAX_PLY) {
+            return score - ply;
+        } else if (score <= MAX_PLY - MATE) {
+            return score + ply;
+        }
+        return score;
+    }
+
+    /**
+     * TRUE iff the search has been stopped or has just
+     * reached its node or time limit.
+     *
+     * @return Whether to stop searching.
+     */
+    private boolean stopped() {
+        if (!_stopped && ((_nodeLimit > 0 && _nodes >= _nodeLimit)
+                || ((_nodes & 1023) == 0 && (System.nanoTime() >= _deadline
+                    || (_stopSignal != null && _stopSignal.get()))))) {
+            _stopped = true;
+        }
+        return _stopped;
+    }
+
+    /**
+     * Prints the result of the last iteration to _out.
+     */
+    private void report() {
+        if (_out == null) {
+            return;
+        }
+        long elapsed = Math.max(1, System.nanoTime() - _start);
+        StringBuilder sb = new StringBuilder();
+        sb.append("depth ").append(_depth);
+        if (Math.abs(_score) >= MATE - MAX_PLY) {
+            int plies = MATE - Math.abs(_score);
+            sb.append(" score mate ").append(_score > 0 ? (plies + 1) / 2 : -(plies / 2));
+        } else {
+            sb.append(" score cp ").append(_score);
+        }
+        sb.append(" nodes ").append(_nodes)
+                .append(" nps ").append(_nodes * 1_000_000_000L / elapsed)
+                .append(" time ").append(elapsed / 1_000_000)
+                .append(" pv");
+        for (int move : _pv) {
+            sb.append(' ').append(Move.toString(move));
+        }
+        _out.println(sb);
+    }
+
+    /**
+     * Transposition table.
+     */
+    private final TranspositionTable _table;
+
+    /**
+     * Pawn structure cache, owned by this searcher alone.
+     */
+    private final PawnTable _pawns = new PawnTable(PAWN_TABLE_MEGABYTES);
+
+    /**
+     * Time limit in milliseconds and node limit, 0 if unlimited.
+     */
+    private final long _timeLimit, _nodeLimit;
+
+    /**
+     * Maximum depth of an iteration.
+     */
+    private final int _depthLimit;
+
+    /**
+     * Stream that iterations are reported to, or null.
+     */
+    private PrintStream _out;
+
+    /**
+     * Flag set when the main search ends, or null if
+     * this is not a helper.
+     */
+    private AtomicBoolean _stopSignal;
+
+    /**
+     * Extra depth searched by each iteration.
+     */
+    private int _depthOffset;
+
+    /**
+     * Whether each search starts by aging the table.
+     */
+    private boolean _agesTable = true;
+
+    /**
+     * Board being searched.
+     */
+    private Board _board;
+
+    /**
+     * Nodes searched by the current search.
+     */
+    private long _nodes;
+
+    /**
+     * Start time and deadline of the current search,
+     * in System.nanoTime() units.
+     */
+    private long _start, _deadline;
+
+    /**
+     * TRUE once the current search has reached a limit.
+     */
+    private boolean _stopped;
+
+    /**
+     * Result of the deepest completed iteration: best move,
+     * score and depth.
+     */
+    private int _bestMove, _score, _depth;
+
+    /**
+     * Principal variation of the deepest completed iteration.
+     */
+    private int[] _pv = new int[0];
+
+    /**
+     * Move picker of each ply.
+     */
+    private final MovePicker[] _pickers = new MovePicker[MAX_PLY];
+
+    /**
+     * Principal variation found from each ply on.
+     */
+    private final int[][] _pvMoves = new int[MAX_PLY + 1][MAX_PLY + 1];
+
+    /**
+     * Lengths of the principal variations in _pvMoves.
+     */
+    private final int[] _pvLength = new int[MAX_PLY + 1];
+
+    /**
+     * Two killer moves at each ply.
+     */
+    private final int[][] _killers = new int[MAX_PLY][2];
+
+    /**
+     * History scores of quiet moves, indexed by
+     * from * NUM_SQUARES + to.
+     */
+    private final int[] _history = new int[Board.NUM_SQUARES * Board.NUM_SQUARES];
+
+    /**
+     * Hashes of the positions on the line being searched.
+     */
+    private final long[] _hashes = new long[MAX_PLY];
+}
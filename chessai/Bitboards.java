@@ -0,0 +1,364 @@
+package chessai;
+
+import static chessai.Square.*;
+
+/**
+ * Precomputed attack tables and helper methods for
+ * 64-bit bitboards. Bit i of a bitboard corresponds
+ * to the square whose index() is i, so a1 is the
+ * least significant bit and h8 the most significant.
+ *
+ * @author Richard Hu
+ */
+final class Bitboards {
+
+    /**
+     * Bitboards of the leftmost and rightmost columns.
+     */
+    static final long FILE_A = 0x0101010101010101L,
+            FILE_H = FILE_A << 7;
+
+    /**
+     * Bitboards of the rows that pawns start from
+     * or land on after moving two squares.
+     */
+    static final long RANK_3 = 0xFFL << 16,
+            RANK_6 = 0xFFL << 40;
+
+    /**
+     * Bitboards of the first and last rows, where
+     * pawns promote.
+     */
+    static final long RANK_1 = 0xFFL,
+            RANK_8 = 0xFFL << 56;
+
+    /**
+     * Returns the bitboard containing only the
+     * square with the given index.
+     *
+     * @param index Index of square.
+     * @return Bitboard of the square.
+     */
+    static long bit(int index) {
+        return 1L << index;
+    }
+
+    /**
+     * Returns the bitboard containing only SQ.
+     *
+     * @param sq Square.
+     * @return Bitboard of the square.
+     */
+    static long bit(Square sq) {
+        return 1L << sq.index();
+    }
+
+    /**
+     * Returns the index of the lowest set square
+     * of a non-empty bitboard.
+     *
+     * @param bb Bitboard.
+     * @return Index of the lowest square in BB.
+     */
+    static int first(long bb) {
+        return Long.numberOfTrailingZeros(bb);
+    }
+
+    /**
+     * Returns the squares attacked by a bishop on SQ
+     * given the occupied squares of the board.
+     *
+     * @param sq Index of the bishop's square.
+     * @param occupied Bitboard of all occupied squares.
+     * @return Bitboard of attacked squares.
+     */
+    static long bishopAttacks(int sq, long occupied) {
+        return BISHOP_ATTACKS[BISHOP_OFFSETS[sq]
+                + (int) (((occupied & BISHOP_MASKS[sq]) * BISHOP_MAGICS[sq]) >>> BISHOP_SHIFTS[sq])];
+    }
+
+    /**
+     * Returns the squares attacked by a rook on SQ
+     * given the occupied squares of the board.
+     *
+     * @param sq Index of the rook's square.
+     * @param occupied Bitboard of all occupied squares.
+     * @return Bitboard of attacked squares.
+     */
+    static long rookAttacks(int sq, long occupied) {
+        return ROOK_ATTACKS[ROOK_OFFSETS[sq]
+                + (int) (((occupied & ROOK_MASKS[sq]) * ROOK_MAGICS[sq]) >>> ROOK_SHIFTS[sq])];
+    }
+
+    /**
+     * Returns the squares attacked by a queen on SQ
+     * given the occupied squares of the board.
+     *
+     * @param sq Index of the queen's square.
+     * @param occupied Bitboard of all occupied squares.
+     * @return Bitboard of attacked squares.
+     */
+    static long queenAttacks(int sq, long occupied) {
+        return bishopAttacks(sq, occupied) | rookAttacks(sq, occupied);
+    }
+
+    /**
+     * Returns the squares strictly between two squares on
+     * the same row, column or diagonal.
+     *
+     * @param a Index of one square.
+     * @param b Index of the other square.
+     * @return Bitboard of the squares between A and B,
+     * or 0 if they are not aligned.
+     */
+    static long between(int a, int b) {
+        return BETWEEN[a][b];
+    }
+
+    /**
+     * Returns the full row, column or diagonal through
+     * two squares.
+     *
+     * @param a Index of one square.
+     * @param b Index of the other square.
+     * @return Bitboard of the line through A and B,
+     * or 0 if they are not aligned.
+     */
+    static long line(int a, int b) {
+        return LINE[a][b];
+    }
+
+    /**
+     * Returns the squares attacked by a slider moving
+     * in the given directions by walking each ray. Only
+     * used to fill the magic attack tables.
+     *
+     * @param dirs Directions as defined by Square.moveDest.
+     * @param sq Index of the slider's square.
+     * @param occupied Bitboard of all occupied squares.
+     * @return Bitboard of attacked squares.
+     */
+    private static long slidingAttacks(int[] dirs, int sq, long occupied) {
+        long attacks = 0;
+        for (int dir : dirs) {
+            attacks |= rayAttacks(dir, sq, occupied);
+        }
+        return attacks;
+    }
+
+    /**
+     * Returns the squares attacked along a single ray,
+     * up to and including the first occupied square.
+     *
+     * @param dir Direction as defined by Square.moveDest.
+     * @param sq Index of the starting square.
+     * @param occupied Bitboard of all occupied squares.
+     * @return Bitboard of attacked squares.
+     */
+    private static long rayAttacks(int dir, int sq, long occupied) {
+        long attacks = RAYS[dir][sq];
+        long blockers = attacks & occupied;
+        if (blockers != 0) {
+            int blocker = (dir <= 2 || dir == 7)
+                    ? Long.numberOfTrailingZeros(blockers)
+                    : 63 - Long.numberOfLeadingZeros(blockers);
+            attacks ^= RAYS[dir][blocker];
+        }
+        return attacks;
+    }
+
+    /**
+     * Squares attacked by a knight or king, indexed by
+     * the index of the piece's square.
+     */
+    static final long[] KNIGHT_ATTACKS = new long[NUM_SQUARES],
+            KING_ATTACKS = new long[NUM_SQUARES];
+
+    /**
+     * Squares attacked by a pawn, indexed by
+     * Color.index() and the index of the pawn's square.
+     */
+    static final long[][] PAWN_ATTACKS = new long[2][NUM_SQUARES];
+
+    /**
+     * All squares strictly beyond a square in a direction,
+     * indexed by direction and square index.
+     */
+    private static final long[][] RAYS = new long[8][NUM_SQUARES];
+
+    /**
+     * Squares between and lines through each pair of
+     * aligned squares, indexed by both square indices.
+     */
+    private static final long[][] BETWEEN = new long[NUM_SQUARES][NUM_SQUARES],
+            LINE = new long[NUM_SQUARES][NUM_SQUARES];
+
+    /**
+     * Directions in which bishops and rooks slide.
+     */
+    private static final int[] BISHOP_DIRS = {1, 3, 5, 7},
+            ROOK_DIRS = {0, 2, 4, 6};
+
+    /**
+     * The squares whose occupancy can block a bishop or
+     * rook, indexed by square index. Edge squares are left
+     * out since a piece there never hides anything.
+     */
+    private static final long[] BISHOP_MASKS = new long[NUM_SQUARES],
+            ROOK_MASKS = new long[NUM_SQUARES];
+
+    /**
+     * Magic multipliers that map each blocker subset of a
+     * mask to a distinct (or harmlessly shared) slot, indexed
+     * by square index. Found offline by trial of sparse random
+     * numbers.
+     */
+    private static final long[] BISHOP_MAGICS = {
+            0x8008029802002200L, 0x4291040808802804L, 0x0008180040800300L, 0x00088A0202AA1050L,
+            0x000410A800000000L, 0x0009100804040009L, 0x0801140121080011L, 0xA040808400824000L,
+            0x000008A004040048L, 0x0600200440808114L, 0x2020410401204403L, 0x000404106200C001L,
+            0x0100011040800026L, 0x00080088200A0820L, 0x0008004804642080L, 0x4000004402981800L,
+            0x0710002220020088L, 0x2010808202020402L, 0x8010080844002820L, 0x800C000124028000L,
+            0x0002000422010040L, 0x6438402200422000L, 0x0010A1004C0C2000L, 0x000A00E109010190L,
+            0x08022010400414C0L, 0x8428022220240101L, 0x0008088004040010L, 0x0008080000220020L,
+            0x0421010000104000L, 0x219102082500A000L, 0x0018008042120150L, 0x02108020A09C0402L,
+            0x301C202000890208L, 0xA004022000080100L, 0x100C024100881200L, 0x8000080800460A00L,
+            0x1004010804440040L, 0x420C920080041000L, 0x05018C0114440100L, 0x00040100308A0080L,
+            0x0020821042801000L, 0x0202026120001C02L, 0x0002001044000800L, 0x20AA844200800801L,
+            0x0000012011001200L, 0x0860209008808042L, 0x0008100080A80200L, 0x0808020050420201L,
+            0x00051C0104C00000L, 0x0000840108820022L, 0x000A461842080004L, 0x2400400914880002L,
+            0x00040040102481B4L, 0x2104A14202020060L, 0x0004081041020060L, 0x00A0840082005100L,
+            0x0000412210101482L, 0x0108504208042210L, 0x000020044C040405L, 0x4140050206051401L,
+            0x0122008051820200L, 0x0082800428109100L, 0x9104042454440401L, 0x141E200C00820848L
+    }, ROOK_MAGICS = {
+            0x2080002080400010L, 0x00C0002001401000L, 0x2100110008402002L, 0x0880080081041000L,
+            0x0200020020041008L, 0x2300040008010012L, 0x0C00283004008201L, 0x0180010000407A80L,
+            0x0168800080400020L, 0x0010400040201000L, 0x1001002001001048L, 0x1001002408100100L,
+            0x0801000408010012L, 0x4001000209000400L, 0x08A20004C8020001L, 0x2002801145002280L,
+            0x0080860021004200L, 0x001000C009402002L, 0x00B0002004002800L, 0x100A808010020800L,
+            0x8101010008000410L, 0x0244008002000480L, 0x0000040010810208L, 0x2000020000448534L,
+            0x4104400480008033L, 0x0000810100204000L, 0x0440430900200010L, 0x4600240900100100L,
+            0x0060080080040080L, 0x0001000300080400L, 0x0004084400011002L, 0x0023040200008041L,
+            0x0580050043002080L, 0x0400804002802008L, 0x0001002001004010L, 0x1000200901001000L,
+            0x4410800801800C00L, 0xA012003806001004L, 0x0020100104008802L, 0x0004808402000041L,
+            0x0010400170898000L, 0x0080500020004004L, 0x1040408012020020L, 0x8010040008004040L,
+            0x2001080100110004L, 0x0000020004008080L, 0x0021010810040002L, 0x0800008C43020024L,
+            0x0000800021005100L, 0x0070201040008080L, 0x0000D04282006A00L, 0x0010014400080240L,
+            0x0001080110050100L, 0x0012000810240600L, 0x0402000801040200L, 0x028100108A004100L,
+            0x0050800300102045L, 0x8208210040120882L, 0x8010600101183441L, 0x020B000910006045L,
+            0x0241001002480005L, 0x0081000400880241L, 0x0000009008024124L, 0x0048122980410402L
+    };
+
+    /**
+     * Right shifts applied to the product, equal to 64
+     * minus the number of squares in the mask.
+     */
+    private static final int[] BISHOP_SHIFTS = new int[NUM_SQUARES],
+            ROOK_SHIFTS = new int[NUM_SQUARES];
+
+    /**
+     * Start of each square's slice of the attack tables.
+     */
+    private static final int[] BISHOP_OFFSETS = new int[NUM_SQUARES],
+            ROOK_OFFSETS = new int[NUM_SQUARES];
+
+    /**
+     * Bishop and rook attacks for every square and
+     * blocker subset, indexed by offset plus magic index.
+     */
+    private static final long[] BISHOP_ATTACKS, ROOK_ATTACKS;
+
+    static {
+        for (Square sq : ALL_SQUARES) {
+            int i = sq.index();
+            for (int dir = 0; dir < 8; dir++) {
+                for (int steps = 1; sq.moveDest(dir, steps) != null; steps++) {
+                    RAYS[dir][i] |= bit(sq.moveDest(dir, steps));
+                }
+                if (sq.moveDest(dir, 1) != null) {
+                    KING_ATTACKS[i] |= bit(sq.moveDest(dir, 1));
+                }
+            }
+            for (int dc : new int[] {-2, -1, 1, 2}) {
+                for (int dr : new int[] {-2, -1, 1, 2}) {
+                    if (Math.abs(dc) != Math.abs(dr) && exists(sq.col() + dc, sq.row() + dr)) {
+                        KNIGHT_ATTACKS[i] |= bit(sq(sq.col() + dc, sq.row() + dr));
+                    }
+                }
+            }
+            for (int dir : new int[] {1, 7}) {
+                if (sq.moveDest(dir, 1) != null) {
+                    PAWN_ATTACKS[0][i] |= bit(sq.moveDest(dir, 1));
+                }
+            }
+            for (int dir : new int[] {3, 5}) {
+                if (sq.moveDest(dir, 1) != null) {
+                    PAWN_ATTACKS[1][i] |= bit(sq.moveDest(dir, 1));
+                }
+            }
+        }
+        for (int a = 0; a < NUM_SQUARES; a++) {
+            for (int dir = 0; dir < 8; dir++) {
+                int opposite = (dir + 4) % 8;
+                for (long ray = RAYS[dir][a]; ray != 0; ray &= ray - 1) {
+                    int b = first(ray);
+                    BETWEEN[a][b] = RAYS[dir][a] & RAYS[opposite][b];
+                    LINE[a][b] = RAYS[dir][a] | RAYS[opposite][a] | bit(a);
+                }
+            }
+        }
+    }
+
+    static {
+        BISHOP_ATTACKS = initSliders(BISHOP_DIRS, BISHOP_MASKS, BISHOP_MAGICS,
+                BISHOP_SHIFTS, BISHOP_OFFSETS);
+        ROOK_ATTACKS = initSliders(ROOK_DIRS, ROOK_MASKS, ROOK_MAGICS,
+                ROOK_SHIFTS, ROOK_OFFSETS);
+    }
+
+    /**
+     * Computes the blocker masks, shifts and table offsets
+     * of a sliding piece and fills its attack table.
+     *
+     * @param dirs Directions the piece slides in.
+     * @param masks Array to fill with blocker masks.
+     * @param magics Magic numbers of each square.
+     * @param shifts Array to fill with shifts.
+     * @param offsets Array to fill with table offsets.
+     * @return The attack table.
+     */
+    private static long[] initSliders(int[] dirs, long[] masks, long[] magics,
+                                      int[] shifts, int[] offsets) {
+        int size = 0;
+        for (int sq = 0; sq < NUM_SQUARES; sq++) {
+            long mask = 0;
+            for (int dir : dirs) {
+                long ray = RAYS[dir][sq];
+                long edge = (dir <= 2 || dir == 7)
+                        ? Long.highestOneBit(ray) : Long.lowestOneBit(ray);
+                mask |= ray & ~edge;
+            }
+            masks[sq] = mask;
+            shifts[sq] = 64 - Long.bitCount(mask);
+            offsets[sq] = size;
+            size += 1 << Long.bitCount(mask);
+        }
+
+        long[] table = new long[size];
+        for (int sq = 0; sq < NUM_SQUARES; sq++) {
+            long subset = 0;
+            do {
+                int index = (int) ((subset * magics[sq]) >>> shifts[sq]);
+                table[offsets[sq] + index] = slidingAttacks(dirs, sq, subset);
+                subset = (subset - masks[sq]) & masks[sq];
+            } while (subset != 0);
+        }
+        return table;
+    }
+
+    /**
+     * Not instantiable.
+     */
+    private Bitboards() {
+    }
+}
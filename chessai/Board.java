@@ -4,10 +4,13 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
 
 import static chessai.Square.*;
 import static chessai.Move.*;
 import static chessai.Color.*;
+import static chessai.Piece.*;
+import static chessai.Bitboards.*;
 
 /**
  * The board on which the game of
@@ -50,6 +53,94 @@ public class Board {
             DRAW = 'D',
             GAME_ONGOING = '\5';
 
+    /**
+     * Initial number of moves that can be taken back
+     * before the undo stack grows.
+     */
+    static final int INITIAL_UNDO_CAPACITY = 256;
+
+    /**
+     * Initial undo capacity of a copy, kept small so that
+     * copies are cheap to make; the stack grows as needed.
+     */
+    static final int COPY_UNDO_CAPACITY = 32;
+
+    /**
+     * Most pieces of one color and type that a board can
+     * hold, enough for any position reachable by promotion.
+     */
+    static final int PIECE_LIST_CAPACITY = 10;
+
+    /**
+     * Length of a move array large enough to hold every
+     * legal move of any position.
+     */
+    static final int MAX_MOVES = 256;
+
+    /**
+     * Number of random pseudo-legal moves randomMove tries
+     * before generating the legal moves instead.
+     */
+    static final int RANDOM_MOVE_TRIES = 8;
+
+    /**
+     * Kinds of moves that need special handling when
+     * made and taken back.
+     */
+    private static final int CASTLE = 1,
+            EN_PASSANT = 2,
+            PROMOTION = 3;
+
+    /**
+     * Values of the piece types in centipawns for static
+     * exchange evaluation. Kings are never captured.
+     */
+    static final int[] SEE_VALUES = {100, 300, 300, 500, 900, 0};
+
+    /**
+     * Kinds of moves that generateMoves can be limited to:
+     * captures and promotions, and all other moves.
+     */
+    private static final int TACTICAL_MOVES = 1,
+            QUIET_MOVES = 2;
+
+    /**
+     * Layout of the state saved for each move on the undo
+     * stack: castling rights in the low bits, then the en
+     * passant square index (NUM_SQUARES if none), the kind
+     * of special move, single-bit flags and the outcome.
+     */
+    private static final int CASTLING_RIGHTS = 0xF,
+            EN_PASSANT_SHIFT = 4,
+            SPECIAL_SHIFT = 11,
+            MOVING_MOVED = 1 << 13,
+            ROOK_MOVED = 1 << 14,
+            WHITE_IN_CHECK = 1 << 15,
+            WHITE_CHECK_KNOWN = 1 << 16,
+            BLACK_IN_CHECK = 1 << 17,
+            BLACK_CHECK_KNOWN = 1 << 18,
+            OUTCOME_KNOWN = 1 << 19,
+            OUTCOME_SHIFT = 20,
+            ATTACKS_KNOWN_SHIFT = 27;
+
+    /**
+     * Castling rights kept after a move from or to each
+     * square, indexed by square index. Moving the king or a
+     * rook, or capturing a rook, loses the matching rights.
+     */
+    private static final int[] CASTLING_MASKS = new int[NUM_SQUARES];
+
+    static {
+        Arrays.fill(CASTLING_MASKS, CASTLING_RIGHTS);
+        for (Color color : Color.values()) {
+            int row = color == WHITE ? 0 : BOARD_SIZE - 1;
+            CASTLING_MASKS[sq(0, row).index()] &= ~castlingRight(color, 0);
+            CASTLING_MASKS[sq(BOARD_SIZE - 1, row).index()] &= ~castlingRight(color, BOARD_SIZE - 1);
+            CASTLING_MASKS[sq(4, row).index()] &= ~(castlingRight(color, 0)
+                    | castlingRight(color, BOARD_SIZE - 1));
+        }
+    }
+
     /**
      * Converts a character to a Color.
      *
@@ -96,6 +187,8 @@ public class Board {
      * @param turn Color of starting turn.
      */
     Board(String[][] layout, Color turn) {
+        this(INITIAL_UNDO_CAPACITY);
+        setNetwork(Nnue.defaultNetwork());
         initialize(layout, turn);
     }
 
@@ -104,9 +197,94 @@ public class Board {
      * starting layout.
      */
     Board() {
+        this(INITIAL_UNDO_CAPACITY);
+        setNetwork(Nnue.defaultNetwork());
         initialize();
     }
 
+    /**
+     * Creates a new board from a position in
+     * Forsyth-Edwards Notation.
+     *
+     * @param fen Position in FEN.
+     */
+    Board(String fen) {
+        this(INITIAL_UNDO_CAPACITY);
+        setNetwork(Nnue.defaultNetwork());
+        initialize(fen);
+    }
+
+    /**
+     * Creates an empty board whose undo stack starts
+     * with room for UNDOCAPACITY moves.
+     *
+     * @param undoCapacity Initial capacity of the undo stack.
+     */
+    private Board(int undoCapacity) {
+        _undoMoves = new Move[undoCapacity];
+        _undoMoving = new Piece[undoCapacity];
+        _undoCaptured = new Piece[undoCapacity];
+        _undoStates = new int[undoCapacity];
+        _undoAttacks = new long[undoCapacity * 2];
+        _promotionPieces = new Piece[undoCapacity * 2 * NUM_TYPES];
+        _evaluation = Evaluation.defaultTables();
+    }
+
+    /**
+     * Returns an independent copy of this board for another
+     * thread or search to play on. The bitboards and position
+     * state, including the piece lists, are copied as primitive
+     * arrays, and each piece is
+     * copied once; the move history is not, so the copy cannot
+     * undo moves made before it was taken.
+     *
+     * @return Copy of this board.
+     */
+    Board copy() {
+        Board copy = new Board(COPY_UNDO_CAPACITY);
+        for (long bb = _occupied; bb != 0; bb &= bb - 1) {
+            int sq = first(bb);
+            Piece piece = _board[sq].copy();
+            piece.setMoved(_board[sq].hasMoved());
+            copy._board[sq] = piece;
+        }
+        System.arraycopy(_pieceLists, 0, copy._pieceLists, 0, _pieceLists.length);
+        System.arraycopy(_pieceCounts, 0, copy._pieceCounts, 0, _pieceCounts.length);
+        System.arraycopy(_listIndex, 0, copy._listIndex, 0, NUM_SQUARES);
+        for (int color = 0; color < 2; color++) {
+            System.arraycopy(_pieceBB[color], 0, copy._pieceBB[color], 0, NUM_TYPES);
+        }
+        System.arraycopy(_colorBB, 0, copy._colorBB, 0, 2);
+        System.arraycopy(_kingSquares, 0, copy._kingSquares, 0, 2);
+        copy._occupied = _occupied;
+        copy._turn = _turn;
+        copy._enPassant = _enPassant;
+        copy._castling = _castling;
+        copy._hash = _hash;
+        copy._pawnHash = _pawnHash;
+        copy._evaluation = _evaluation;
+        copy._midgame = _midgame;
+        copy._endgame = _endgame;
+        copy._phase = _phase;
+
+        copy._whiteInCheck = _whiteInCheck;
+        copy._whiteInCheckUpdated = _whiteInCheckUpdated;
+        copy._blackInCheck = _blackInCheck;
+        copy._blackInCheckUpdated = _blackInCheckUpdated;
+        copy._outcome = _outcome;
+        copy._outcomeKnown = _outcomeKnown;
+        copy._attacks[0] = _attacks[0];
+        copy._attacks[1] = _attacks[1];
+        copy._attacksKnown = _attacksKnown;
+        if (_network != null) {
+            copy.setNetwork(_network);
+            int size = 2 * _network.hidden();
+            System.arraycopy(_accumulators, _ply * size, copy._accumulators, 0, size);
+            System.arraycopy(_accumulatorsStale, 2 * _ply, copy._accumulatorsStale, 0, 2);
+        }
+        return copy;
+    }
+
     /**
      * Initializes the board to the given parameters.
      *
@@ -115,19 +293,11 @@ public class Board {
      */
     void initialize(String[][] layout, Color turn) {
         this.clear();
-        _whitePieces.clear();
-        _blackPieces.clear();
 
         _possibleWhiteMoves.clear();
         _possibleBlackMoves.clear();
 
-        _possibleWhiteMovesUpdated = false;
-        _possibleBlackMovesUpdated = false;
-
-        _whiteInCheckUpdated = false;
-        _blackInCheckUpdated = false;
-
-        _outcomeKnown = false;
+        clearCaches();
 
         if (layout != null) {
             for (int r = 0; r < layout.length; r++) {
@@ -143,8 +313,123 @@ public class Board {
             }
         }
 
-        _movesMade.clear();
+        _ply = 0;
+        if (_network != null) {
+            _accumulatorsStale[0] = _accumulatorsStale[1] = true;
+        }
+        _enPassant = null;
+        _castling = 0;
+        for (Color color : Color.values()) {
+            int row = color == WHITE ? 0 : BOARD_SIZE - 1;
+            Piece king = get(sq(4, row));
+            if (king == null || king.type() != KING || king.getColor() != color) {
+                continue;
+            }
+            for (int rookCol : new int[] {0, BOARD_SIZE - 1}) {
+                Piece rook = get(sq(rookCol, row));
+                if (rook != null && rook.type() == ROOK && rook.getColor() == color) {
+                    _castling |= castlingRight(color, rookCol);
+                }
+            }
+        }
         _turn = turn;
+        _hash = computeHash();
+    }
+
+    /**
+     * Initializes the board to a position in Forsyth-Edwards
+     * Notation. The move counters, if present, are ignored.
+     *
+     * @param fen Position in FEN.
+     */
+    void initialize(String fen) {
+        String[] fields = fen.trim().split("\\s+");
+        String[] rows = fields[0].split("/");
+        String[][] layout = new String[BOARD_SIZE][BOARD_SIZE];
+        for (int i = 0; i < rows.length && i < BOARD_SIZE; i++) {
+            int r = BOARD_SIZE - 1 - i, c = 0;
+            for (char ch : rows[i].toCharArray()) {
+                if (Character.isDigit(ch)) {
+                    c += ch - '0';
+                } else if (c < BOARD_SIZE) {
+                    layout[r][c] = (Character.isUpperCase(ch) ? "w" : "b")
+                            + Character.toLowerCase(ch);
+                    c++;
+                }
+            }
+        }
+        initialize(layout, fields.length > 1 && fields[1].equals("b") ? BLACK : WHITE);
+
+        String castling = fields.length > 2 ? fields[2] : "-";
+        _castling = 0;
+        for (char c : castling.toCharArray()) {
+            switch (c) {
+                case 'K' -> _castling |= castlingRight(WHITE, BOARD_SIZE - 1);
+                case 'Q' -> _castling |= castlingRight(WHITE, 0);
+                case 'k' -> _castling |= castlingRight(BLACK, BOARD_SIZE - 1);
+                case 'q' -> _castling |= castlingRight(BLACK, 0);
+                default -> { }
+            }
+        }
+
+        if (fields.length > 3 && !fields[3].equals("-")) {
+            _enPassant = enPassantSquare(sq(fields[3]), turn().opposite());
+        }
+        _hash = computeHash();
+    }
+
+    /**
+     * Returns the current position in Forsyth-Edwards
+     * Notation. Only the first four fields are written
+     * since the board does not keep move counters.
+     *
+     * @return This board in FEN.
+     */
+    String toFen() {
+        StringBuilder sb = new StringBuilder();
+        for (int r = BOARD_SIZE - 1; r >= 0; r--) {
+            int empty = 0;
+            for (int c = 0; c < BOARD_SIZE; c++) {
+                Piece piece = get(sq(c, r));
+                if (piece == null) {
+                    empty++;
+                    continue;
+                }
+                if (empty > 0) {
+                    sb.append(empty);
+                    empty = 0;
+                }
+                char ch = piece.abbr() == Pawn.ABBR ? 'P' : piece.abbr();
+                sb.append(piece.getColor() == WHITE ? ch : Character.toLowerCase(ch));
+            }
+            if (empty > 0) {
+                sb.append(empty);
+            }
+            if (r > 0) {
+                sb.append('/');
+            }
+        }
+        sb.append(turn() == WHITE ? " w " : " b ");
+
+        int length = sb.length();
+        if (canCastle(WHITE, 7)) {
+            sb.append('K');
+        }
+        if (canCastle(WHITE, 0)) {
+            sb.append('Q');
+        }
+        if (canCastle(BLACK, 7)) {
+            sb.append('k');
+        }
+        if (canCastle(BLACK, 0)) {
+            sb.append('q');
+        }
+        if (sb.length() == length) {
+            sb.append('-');
+        }
+
+        sb.append(' ').append(_enPassant == null ? "-" : _enPassant.toString());
+        return sb.toString();
     }
 
     /**
@@ -161,6 +446,14 @@ public class Board {
     void clear() {
         Arrays.fill(_board, null);
         Arrays.fill(_kingSquares, null);
+        for (long[] pieces : _pieceBB) {
+            Arrays.fill(pieces, 0);
+        }
+        Arrays.fill(_colorBB, 0);
+        _occupied = 0;
+        Arrays.fill(_pieceCounts, 0);
+        _midgame = _endgame = _phase = 0;
+        _pawnHash = 0;
     }
 
     /**
@@ -181,6 +474,45 @@ public class Board {
      * @param next The color of the next turn.
      */
     void set(Square sq, Piece piece, Color next) {
+        clearCaches();
+
+        Piece old = get(sq);
+        if (old != null) {
+            togglePiece(old, sq.index());
+            removeFromList(old, sq.index());
+            addScore(old, sq.index(), -1);
+            if (_network != null && !_undoing) {
+                updateAccumulators(old, sq.index(), -1);
+            }
+            if (old.type() == KING) {
+                updateKingSquare(null, old.getColor());
+            }
+        }
+        if (piece != null) {
+            togglePiece(piece, sq.index());
+            addToList(piece, sq.index());
+            addScore(piece, sq.index(), 1);
+            if (_network != null && !_undoing) {
+                updateAccumulators(piece, sq.index(), 1);
+            }
+            if (piece.type() == KING) {
+                updateKingSquare(sq, piece.getColor());
+            }
+        }
+        _board[sq.index()] = piece;
+
+        if (next != null && next != _turn) {
+            _turn = next;
+            _hash ^= Zobrist.BLACK_TO_MOVE;
+        }
+    }
+
+    /**
+     * Marks the possible moves sets, check status and
+     * outcome as out of date, so that they are computed
+     * again the next time they are needed.
+     */
+    void clearCaches() {
         _possibleWhiteMovesUpdated = false;
         _possibleBlackMovesUpdated = false;
 
@@ -189,20 +521,7 @@ public class Board {
 
         _outcomeKnown = false;
 
-        if (get(sq) != null) {
-            removePiece(get(sq));
-        }
-        if (piece != null && !hasPiece(piece)) {
-            addPiece(piece);
-        }
-        if (piece != null && piece.abbr() == King.ABBR) {
-            updateKingSquare(sq, piece.getColor());
-        }
-        _board[sq.index()] = piece;
-
-        if (next != null) {
-            _turn = next;
-        }
+        _attacksKnown = 0;
     }
 
     /**
@@ -216,51 +535,275 @@ public class Board {
     }
 
     /**
-     * Sets the square SQ to PIECE and sets
-     * the moving color to NEXT. PIECE is not
-     * tracked by the HashSets containing the
-     * pieces of each color. Primarily used
-     * for checking removal from check state.
+     * Adds or removes PIECE on the square with index
+     * INDEX in the bitboards and the hash.
      *
-     * @param sq Square to set.
-     * @param piece Piece to set SQ to.
-     * @param next The color of the next turn.
+     * @param piece Piece to toggle.
+     * @param index Index of the piece's square.
+     */
+    private void togglePiece(Piece piece, int index) {
+        int color = piece.getColor().index();
+        _pieceBB[color][piece.type()] ^= bit(index);
+        _colorBB[color] ^= bit(index);
+        _occupied ^= bit(index);
+        _hash ^= Zobrist.piece(piece.getColor(), piece.type(), index);
+        if (piece.type() == PAWN) {
+            _pawnHash ^= Zobrist.piece(piece.getColor(), PAWN, index);
+        }
+    }
+
+    /**
+     * Adds the piece-square scores and game phase weight
+     * of PIECE on the square with index INDEX to the running
+     * totals, or subtracts them if SIGN is -1.
+     *
+     * @param piece Piece placed or removed.
+     * @param index Index of the piece's square.
+     * @param sign 1 if PIECE is placed, -1 if removed.
+     */
+    private void addScore(Piece piece, int index, int sign) {
+        Color color = piece.getColor();
+        int type = piece.type();
+        _midgame += sign * _evaluation.midgame(color, type, index);
+        _endgame += sign * _evaluation.endgame(color, type, index);
+        _phase += sign * Evaluation.PHASE_WEIGHTS[type];
+    }
+
+    /**
+     * Returns the static evaluation of the current position:
+     * the material and piece-square scores of both sides,
+     * tapered between midgame and endgame by the material
+     * left. The totals are kept up-to-date by set(), so this
+     * costs the same in every position.
+     *
+     * @return Score in centipawns for the side to move.
      */
-    void setUntracked(Square sq, Piece piece, Color next) {
-        _possibleWhiteMovesUpdated = false;
-        _possibleBlackMovesUpdated = false;
+    int evaluate() {
+        int score = Evaluation.taper(_midgame, _endgame, _phase);
+        return _turn == WHITE ? score : -score;
+    }
 
-        _whiteInCheckUpdated = false;
-        _blackInCheckUpdated = false;
+    /**
+     * Returns the static evaluation of the current position
+     * with the pawn structure terms of PAWNS added, looking
+     * up or filling in its entry for the pawns on the board.
+     *
+     * @param pawns Pawn structure cache.
+     * @return Score in centipawns for the side to move.
+     */
+    int evaluate(PawnTable pawns) {
+        int entry = pawns.probe(this);
+        int score = Evaluation.taper(_midgame + pawns.midgame(entry),
+                _endgame + pawns.endgame(entry), _phase);
+        return _turn == WHITE ? score : -score;
+    }
 
-        _outcomeKnown = false;
+    /**
+     * Makes EVALUATION the piece-square tables that this board
+     * keeps totals for and evaluates with, recomputing the
+     * totals of the current position.
+     *
+     * @param evaluation Piece-square tables.
+     */
+    void setEvaluation(Evaluation evaluation) {
+        _evaluation = evaluation;
+        _midgame = _endgame = 0;
+        for (Color color : Color.values()) {
+            for (int type = PAWN; type <= KING; type++) {
+                for (long bb = pieces(color, type); bb != 0; bb &= bb - 1) {
+                    _midgame += evaluation.midgame(color, type, first(bb));
+                    _endgame += evaluation.endgame(color, type, first(bb));
+                }
+            }
+        }
+    }
 
-        _board[sq.index()] = piece;
+    /**
+     * Returns the piece-square tables this board evaluates with.
+     *
+     * @return _evaluation.
+     */
+    Evaluation evaluation() {
+        return _evaluation;
+    }
 
-        if (piece != null && piece.abbr() == King.ABBR) {
-            updateKingSquare(sq, piece.getColor());
+    /**
+     * Makes NETWORK the neural network that this board keeps
+     * accumulators for and evaluates with, or stops using one
+     * if NETWORK is null. The accumulators of the current
+     * position are built when it is first evaluated.
+     *
+     * @param network Network, or null.
+     */
+    void setNetwork(Nnue network) {
+        _network = network;
+        if (network == null) {
+            _accumulators = null;
+            _accumulatorsStale = null;
+        } else {
+            _accumulators = new short[(_undoMoves.length + 1) * 2 * network.hidden()];
+            _accumulatorsStale = new boolean[(_undoMoves.length + 1) * 2];
+            _accumulatorsStale[2 * _ply] = _accumulatorsStale[2 * _ply + 1] = true;
         }
+    }
 
-        if (next != null) {
-            _turn = next;
+    /**
+     * Returns the neural network this board evaluates with.
+     *
+     * @return _network, or null if none.
+     */
+    Nnue network() {
+        return _network;
+    }
+
+    /**
+     * Returns the neural network evaluation of the current
+     * position, first rebuilding the accumulator of each side
+     * whose king has moved since it was last built. There
+     * must be a network.
+     *
+     * @return Score in centipawns for the side to move.
+     */
+    int evaluateNetwork() {
+        int size = _network.hidden();
+        for (int side = 0; side < 2; side++) {
+            if (_accumulatorsStale[2 * _ply + side]) {
+                _network.refresh(this, side, _accumulators, (2 * _ply + side) * size);
+                _accumulatorsStale[2 * _ply + side] = false;
+            }
         }
+        int us = turn().index();
+        return _network.evaluate(_accumulators, (2 * _ply + us) * size,
+                (2 * _ply + 1 - us) * size);
     }
 
     /**
-     * Sets the square SQ to PIECE. PIECE is not
-     * tracked by the HashSets containing the
-     * pieces of each color.
+     * Adds the inputs of PIECE on the square with index INDEX
+     * to the accumulators of the current ply, or subtracts them
+     * if SIGN is -1. Moving a king instead marks the accumulator
+     * of its side to be rebuilt, since all of its inputs change.
      *
-     * @param sq Square set.
-     * @param piece Piece to set SQ to.
+     * @param piece Piece placed or removed.
+     * @param index Index of the piece's square.
+     * @param sign 1 if PIECE is placed, -1 if removed.
+     */
+    private void updateAccumulators(Piece piece, int index, int sign) {
+        int color = piece.getColor().index(), type = piece.type();
+        if (type == KING) {
+            _accumulatorsStale[2 * _ply + color] = true;
+            return;
+        }
+        int size = _network.hidden();
+        for (int side = 0; side < 2; side++) {
+            long king = _pieceBB[side][KING];
+            if (!_accumulatorsStale[2 * _ply + side]) {
+                int feature = Nnue.feature(side, king == 0 ? 0 : first(king), color, type, index);
+                _network.update(_accumulators, (2 * _ply + side) * size, feature, sign);
+            }
+        }
+    }
+
+    /**
+     * Computes the static evaluation of the current position
+     * from scratch.
+     *
+     * @return Score in centipawns for the side to move.
+     */
+    int computeEvaluation() {
+        int midgame = 0, endgame = 0, phase = 0;
+        for (Color color : Color.values()) {
+            for (int type = PAWN; type <= KING; type++) {
+                for (long bb = pieces(color, type); bb != 0; bb &= bb - 1) {
+                    midgame += _evaluation.midgame(color, type, first(bb));
+                    endgame += _evaluation.endgame(color, type, first(bb));
+                    phase += Evaluation.PHASE_WEIGHTS[type];
+                }
+            }
+        }
+        int score = Evaluation.taper(midgame, endgame, phase);
+        return _turn == WHITE ? score : -score;
+    }
+
+    /**
+     * Returns the Zobrist hash of the current position,
+     * covering the pieces, the side to move, the castling
+     * rights and the en passant square.
+     *
+     * @return _hash.
+     */
+    long hash() {
+        return _hash;
+    }
+
+    /**
+     * Returns the pawn hash of the current position, the
+     * XOR of the Zobrist keys of the pawns alone, which
+     * addresses the PawnTable.
+     *
+     * @return _pawnHash.
      */
-    void setUntracked(Square sq, Piece piece) {
-        setUntracked(sq, piece, null);
+    long pawnHash() {
+        return _pawnHash;
+    }
+
+    /**
+     * Computes the pawn hash of the current position
+     * from scratch.
+     *
+     * @return Pawn hash of the position.
+     */
+    long computePawnHash() {
+        long hash = 0;
+        for (Color color : Color.values()) {
+            for (long bb = pieces(color, PAWN); bb != 0; bb &= bb - 1) {
+                hash ^= Zobrist.piece(color, PAWN, first(bb));
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Computes the Zobrist hash of the current position
+     * from scratch.
+     *
+     * @return Hash of the position.
+     */
+    long computeHash() {
+        long hash = Zobrist.castling(_castling) ^ Zobrist.enPassant(_enPassant);
+        if (_turn == BLACK) {
+            hash ^= Zobrist.BLACK_TO_MOVE;
+        }
+        for (Color color : Color.values()) {
+            for (int type = PAWN; type <= KING; type++) {
+                for (long bb = pieces(color, type); bb != 0; bb &= bb - 1) {
+                    hash ^= Zobrist.piece(color, type, first(bb));
+                }
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Returns SKIPPED if a pawn of the opposite color of
+     * MOVER could capture onto it en passant, or null
+     * otherwise, so that positions differing only by an
+     * unusable en passant square are treated as equal.
+     *
+     * @param skipped Square skipped by a two-square pawn move.
+     * @param mover Color of the pawn that moved.
+     * @return The en passant square, or null.
+     */
+    private Square enPassantSquare(Square skipped, Color mover) {
+        if ((PAWN_ATTACKS[mover.index()][skipped.index()]
+                & pieces(mover.opposite(), PAWN)) != 0) {
+            return skipped;
+        }
+        return null;
     }
 
     /**
-     * Makes a move on the board with no
-     * promotion.
+     * Makes a move on the board, promoting
+     * to a queen if a pawn reaches the last row.
      *
      * @param mv Move to make.
      */
@@ -268,70 +811,247 @@ public class Board {
         makeMove(mv, null);
     }
 
-    /** Makes a move on the board.
+    /**
+     * Makes a packed move, as filled in by legalMoves,
+     * on the board.
+     *
+     * @param move Packed move to make.
+     */
+    void makeMove(int move) {
+        int promotion = getPromotion(move);
+        makeMove(toMove(move), promotion < 0 ? null : Piece.abbr(promotion));
+    }
+
+    /** Makes a move on the board. The state needed to
+     * take the move back is pushed onto primitive undo
+     * arrays, so no objects are allocated.
      *
      * @param mv Move to make.
-     * @param promotion The piece to promote to.
+     * @param promotion The piece to promote to,
+     *                  or null for a queen.
      */
     void makeMove(Move mv, Character promotion) {
         assert isLegal(mv);
 
-        if (get(mv.getTo()) != null && !mv.isCastle()) {
-            _movesMade.add(new MovePair(mv.capture(get(mv.getTo()).abbr()), get(mv.getFrom()).abbr()));
-        } else {
-            _movesMade.add(new MovePair(mv, get(mv.getFrom()).abbr()));
+        Square from = mv.getFrom(), to = mv.getTo();
+        Piece moving = get(from);
+        Piece captured = get(to);
+        Piece rook = null;
+        int special = 0;
+        if (moving.abbr() == King.ABBR && mv.isCastle()) {
+            special = CASTLE;
+            rook = get(sq(from.direction(to) == 2 ? BOARD_SIZE - 1 : 0, from.row()));
+        } else if (moving.abbr() == Pawn.ABBR && to == _enPassant) {
+            special = EN_PASSANT;
+            captured = get(sq(to.col(), from.row()));
+        } else if (moving.abbr() == Pawn.ABBR && mv.isPossiblePromotion()) {
+            special = PROMOTION;
         }
 
-        if (get(mv.getFrom()).abbr() == King.ABBR && mv.isCastle()) {
-            List<Piece> pieces = getCastlePieces(mv);
-
-            Piece king = pieces.get(0);
-            Piece rook = pieces.get(1);
-
-            int dir = rook.getLocation().direction(king.getLocation());
-
-            king.moveTo(mv.getTo());
+        if (_ply == _undoMoves.length) {
+            growUndoStack();
+        }
+        _undoMoves[_ply] = captured == null ? mv : mv(from, to, captured.abbr());
+        _undoMoving[_ply] = moving;
+        _undoCaptured[_ply] = captured;
+        _undoStates[_ply] = saveState(special, moving, rook);
+        _undoAttacks[2 * _ply] = _attacks[0];
+        _undoAttacks[2 * _ply + 1] = _attacks[1];
+        _ply++;
+        if (_network != null) {
+            int size = 2 * _network.hidden();
+            System.arraycopy(_accumulators, (_ply - 1) * size, _accumulators, _ply * size, size);
+            _accumulatorsStale[2 * _ply] = _accumulatorsStale[2 * _ply - 2];
+            _accumulatorsStale[2 * _ply + 1] = _accumulatorsStale[2 * _ply - 1];
+        }
 
-            set(mv.getFrom(), null);
-            set(mv.getTo(), king);
+        _hash ^= Zobrist.castling(_castling) ^ Zobrist.enPassant(_enPassant);
+        _enPassant = null;
+        _castling &= CASTLING_MASKS[from.index()] & CASTLING_MASKS[to.index()];
 
-            set(rook.getLocation(), null);
-            rook.moveTo(king.getLocation().moveDest(dir, 1));
-            set(rook.getLocation(), rook);
-        } else if (get(mv.getFrom()).abbr() == Pawn.ABBR && mv.isPossiblePromotion()) {
-            set(mv.getFrom(), null);
-            set(mv.getTo(), generatePiece(promotion, turn(), mv.getTo()));
-        } else {
-            Piece moving = get(mv.getFrom());
+        switch (special) {
+            case CASTLE -> {
+                set(from, null);
+                moving.moveTo(to);
+                set(to, moving);
 
-            moving.moveTo(mv.getTo());
+                set(rook.getLocation(), null);
+                rook.moveTo(from.moveDest(from.direction(to), 1));
+                set(rook.getLocation(), rook);
+            }
+            case PROMOTION -> {
+                set(from, null);
+                set(to, promotionPiece(promotion, to));
+            }
+            default -> {
+                if (special == EN_PASSANT) {
+                    set(captured.getLocation(), null);
+                } else if (moving.abbr() == Pawn.ABBR && mv.distance() == 2) {
+                    _enPassant = enPassantSquare(from.moveDest(mv.direction(), 1), turn());
+                }
 
-            set(mv.getFrom(), null);
-            set(mv.getTo(), moving);
+                set(from, null);
+                moving.moveTo(to);
+                set(to, moving);
+            }
         }
 
         _turn = turn().opposite();
+        _hash ^= Zobrist.castling(_castling) ^ Zobrist.enPassant(_enPassant)
+                ^ Zobrist.BLACK_TO_MOVE;
     }
 
     /**
-     * Undoes the previous move made.
+     * Undoes the previous move made, restoring the
+     * captured piece, the moved flags of the pieces
+     * involved, the castling rights, the en passant
+     * square and the cached check and outcome state.
      *
      * @return TRUE iff the undo was successful.
      */
     boolean undo() {
-        if (_movesMade.size() == 0) {
+        if (_ply == 0) {
             return false;
         }
 
-        Move mv = _movesMade.get(_movesMade.size() - 1).mv();
-        char moving = _movesMade.remove(_movesMade.size() - 1).moving();
+        _ply--;
+        Move mv = _undoMoves[_ply];
+        Piece moving = _undoMoving[_ply];
+        Piece captured = _undoCaptured[_ply];
+        int state = _undoStates[_ply];
+        Square from = mv.getFrom(), to = mv.getTo();
+        _undoing = true;
+
+        if (((state >>> SPECIAL_SHIFT) & 3) == CASTLE) {
+            Square rookSq = to.moveDest(to.direction(from), 1);
+            Square corner = sq(to.col() > from.col() ? BOARD_SIZE - 1 : 0, from.row());
+            Piece rook = get(rookSq);
+
+            set(rookSq, null);
+            rook.moveTo(corner);
+            rook.setMoved((state & ROOK_MOVED) != 0);
+            set(corner, rook);
+        }
 
-        set(mv.getTo(), generatePiece(mv.getCaptured(), turn(), mv.getTo()));
-        set(mv.getFrom(), generatePiece(moving, turn().opposite(), mv.getFrom()), turn().opposite());
+        set(to, null);
+        moving.moveTo(from);
+        moving.setMoved((state & MOVING_MOVED) != 0);
+        set(from, moving);
+
+        if (captured != null) {
+            set(captured.getLocation(), captured);
+        }
+        _undoing = false;
 
+        restoreState(state);
+        _attacks[0] = _undoAttacks[2 * _ply];
+        _attacks[1] = _undoAttacks[2 * _ply + 1];
+        _turn = turn().opposite();
+        _hash ^= Zobrist.BLACK_TO_MOVE;
         return true;
     }
 
+    /**
+     * Packs the castling rights, en passant square, moved
+     * flags and cached check, outcome and attack map state
+     * of the board before a move into a single int. The
+     * attack maps themselves are kept in _undoAttacks.
+     *
+     * @param special CASTLE, EN_PASSANT, PROMOTION or 0.
+     * @param moving Moving piece.
+     * @param rook Rook taking part in a castle, or null.
+     * @return Packed state.
+     */
+    private int saveState(int special, Piece moving, Piece rook) {
+        int state = _castling
+                | (_enPassant == null ? NUM_SQUARES : _enPassant.index()) << EN_PASSANT_SHIFT
+                | special << SPECIAL_SHIFT
+                | _outcome << OUTCOME_SHIFT;
+        if (moving.hasMoved()) {
+            state |= MOVING_MOVED;
+        }
+        if (rook != null && rook.hasMoved()) {
+            state |= ROOK_MOVED;
+        }
+        if (_whiteInCheckUpdated) {
+            state |= _whiteInCheck ? WHITE_IN_CHECK | WHITE_CHECK_KNOWN : WHITE_CHECK_KNOWN;
+        }
+        if (_blackInCheckUpdated) {
+            state |= _blackInCheck ? BLACK_IN_CHECK | BLACK_CHECK_KNOWN : BLACK_CHECK_KNOWN;
+        }
+        if (_outcomeKnown) {
+            state |= OUTCOME_KNOWN;
+        }
+        return state | _attacksKnown << ATTACKS_KNOWN_SHIFT;
+    }
+
+    /**
+     * Restores the castling rights, en passant square and
+     * cached check, outcome and attack map state saved by
+     * saveState.
+     *
+     * @param state Packed state.
+     */
+    private void restoreState(int state) {
+        _hash ^= Zobrist.castling(_castling) ^ Zobrist.enPassant(_enPassant);
+        _castling = state & CASTLING_RIGHTS;
+        int enPassant = (state >>> EN_PASSANT_SHIFT) & 127;
+        _enPassant = enPassant == NUM_SQUARES ? null : ALL_SQUARES[enPassant];
+        _hash ^= Zobrist.castling(_castling) ^ Zobrist.enPassant(_enPassant);
+        _whiteInCheckUpdated = (state & WHITE_CHECK_KNOWN) != 0;
+        _whiteInCheck = (state & WHITE_IN_CHECK) != 0;
+        _blackInCheckUpdated = (state & BLACK_CHECK_KNOWN) != 0;
+        _blackInCheck = (state & BLACK_IN_CHECK) != 0;
+        _outcomeKnown = (state & OUTCOME_KNOWN) != 0;
+        _outcome = (char) ((state >>> OUTCOME_SHIFT) & 127);
+        _attacksKnown = state >>> ATTACKS_KNOWN_SHIFT;
+    }
+
+    /**
+     * Doubles the capacity of the undo arrays.
+     */
+    private void growUndoStack() {
+        int capacity = 2 * _undoMoves.length;
+        _undoMoves = Arrays.copyOf(_undoMoves, capacity);
+        _undoMoving = Arrays.copyOf(_undoMoving, capacity);
+        _undoCaptured = Arrays.copyOf(_undoCaptured, capacity);
+        _undoStates = Arrays.copyOf(_undoStates, capacity);
+        _undoAttacks = Arrays.copyOf(_undoAttacks, capacity * 2);
+        _promotionPieces = Arrays.copyOf(_promotionPieces, capacity * 2 * NUM_TYPES);
+        if (_network != null) {
+            _accumulators = Arrays.copyOf(_accumulators, (capacity + 1) * 2 * _network.hidden());
+            _accumulatorsStale = Arrays.copyOf(_accumulatorsStale, (capacity + 1) * 2);
+        }
+    }
+
+    /**
+     * Returns the piece that a pawn of the moving color
+     * promotes into on SQ. Each ply keeps its own promoted
+     * pieces, which are created the first time they are
+     * needed and reused after the move is taken back.
+     *
+     * @param promotion Abbreviation of the piece, or null
+     *                  for a queen.
+     * @param sq Square of the promotion.
+     * @return Promoted piece.
+     */
+    private Piece promotionPiece(Character promotion, Square sq) {
+        char abbr = promotion == null ? Queen.ABBR : Character.toUpperCase(promotion);
+        int type = type(abbr);
+        if (type < KNIGHT || type > QUEEN) {
+            throw new IllegalArgumentException("Cannot promote to " + promotion + ".");
+        }
+        int i = ((_ply - 1) * 2 + turn().index()) * NUM_TYPES + type;
+        Piece piece = _promotionPieces[i];
+        if (piece == null) {
+            piece = _promotionPieces[i] = generatePiece(abbr, turn(), sq);
+        } else {
+            piece.moveTo(sq);
+        }
+        piece.setMoved(false);
+        return piece;
+    }
+
     /**
      * Checks if a move is legal on the current
      * board.
@@ -357,249 +1077,207 @@ public class Board {
         if (mv == null || get(mv.getFrom()) == null) {
             return false;
         }
-
-        if (possibleMovesUpdated(get(mv.getFrom()).getColor())) {
-            return possibleMoves(get(mv.getFrom()).getColor()).contains(mv);
-        }
-
-        if (mv.isCastle()) {
-            return isPossibleCastle(mv);
-        }
-
-        boolean canReach = canReach(mv);
-        if (canReach && inCheck(turn())) {
-            return removesCheck(mv);
-        }
-        return canReach;
+        return possibleMoves(get(mv.getFrom()).getColor())
+                .contains(mv(mv.getFrom(), mv.getTo()));
     }
 
     /**
-     * Checks if a piece can reach a particular square.
+     * Returns the bitboard of the pieces of a
+     * particular color and type.
      *
-     * @param mv Move to check.
-     * @return TRUE iff the piece at MV.getFrom() can
-     * reach MV.getTo();
+     * @param color Color of pieces.
+     * @param type Type of pieces.
+     * @return Bitboard of the pieces.
      */
-    boolean canReach(Move mv) {
-        if (mv == null) {
-            return false;
-        }
-        return switch (get(mv.getFrom()).abbr()) {
-            case Bishop.ABBR -> isPossibleBishop(mv);
-            case King.ABBR -> isPossibleKing(mv);
-            case Knight.ABBR -> isPossibleKnight(mv);
-            case Pawn.ABBR -> isPossiblePawn(mv);
-            case Queen.ABBR -> isPossibleQueen(mv);
-            case Rook.ABBR -> isPossibleRook(mv);
-            default -> false;
-        };
+    long pieces(Color color, int type) {
+        return _pieceBB[color.index()][type];
     }
 
     /**
-     * TRUE iff MV is a possible castle move.
+     * Returns the bitboard of all pieces of a
+     * particular color.
      *
-     * @param mv Move to check.
-     * @return Whether MV is a possible castle move.
+     * @param color Color of pieces.
+     * @return Bitboard of the pieces.
      */
-    boolean isPossibleCastle(Move mv) {
-        assert mv.isCastle();
-
-        List<Piece> pieces = getCastlePieces(mv);
-
-        Piece king = pieces.get(0);
-        Piece rook = pieces.get(1);
-
-        if (rook == null || !(king.abbr() == King.ABBR && rook.abbr() == Rook.ABBR)
-                || (king.hasMoved() || rook.hasMoved())) {
-            return false;
-        }
-
-        int dir = mv.getFrom().direction(mv.getTo());
-        Square sq = mv.getFrom().moveDest(dir, 1);
-
-        while (sq != mv.getTo()) {
-            if (get(sq) != null || inCheck(sq, king.getColor())) {
-                return false;
-            }
-            sq = sq.moveDest(dir, 1);
-        }
-        return !inCheck(sq, king.getColor());
-    }
-
-    /**
-     * Checks all the squares between the start and end
-     * of a move for occupation. Returns TRUE iff all
-     * the squares between the start and end are empty or
-     * all but the last are empty and the last is the
-     * opposite color.
-     *
-     * @param mv Move to check.
-     * @param dir Direction of the move.
-     *
-     * @return TRUE iff all the squares between the start
-     * and end are empty or all but the last are empty
-     * and the last is the opposite color.
-     * */
-    private boolean checkAllSteps(Move mv, int dir) {
-        Square sq = mv.getFrom().moveDest(dir, 1);
-        while (sq != mv.getTo()) {
-            if (get(sq) != null) {
-                return false;
-            }
-            sq = sq.moveDest(dir, 1);
-        }
-        return get(mv.getTo()) == null || get(mv.getTo()).getColor() != get(mv.getFrom()).getColor();
+    long pieces(Color color) {
+        return _colorBB[color.index()];
     }
 
     /**
-     * TRUE iff MV is a possible bishop move.
+     * Returns the bitboard of all occupied squares.
      *
-     * @param mv Move to check.
-     * @return Whether a bishop can make the move.
+     * @return _occupied.
      */
-    boolean isPossibleBishop(Move mv) {
-        int dir = mv.direction();
-        if (dir != 1 && dir != 3 && dir != 5 && dir != 7) {
-            return false;
-        }
-        return checkAllSteps(mv, dir);
+    long occupied() {
+        return _occupied;
     }
 
     /**
-     * TRUE iff MV is a possible king move.
+     * Returns the pieces of both colors that attack the
+     * square with index SQ, treating OCCUPIED as the set
+     * of squares that block sliding pieces.
      *
-     * @param mv Move to check.
-     * @return Whether a king can make the move.
-     */
-    boolean isPossibleKing(Move mv) {
-        return mv.distance() == 1
-                && (get(mv.getTo()) == null || get(mv.getTo()).getColor() != get(mv.getFrom()).getColor());
+     * @param sq Index of square.
+     * @param occupied Bitboard of blocking squares.
+     * @return Bitboard of attacking pieces.
+     */
+    long attackersTo(int sq, long occupied) {
+        long[] white = _pieceBB[0], black = _pieceBB[1];
+        return (PAWN_ATTACKS[0][sq] & black[PAWN])
+                | (PAWN_ATTACKS[1][sq] & white[PAWN])
+                | (KNIGHT_ATTACKS[sq] & (white[KNIGHT] | black[KNIGHT]))
+                | (KING_ATTACKS[sq] & (white[KING] | black[KING]))
+                | (bishopAttacks(sq, occupied)
+                    & (white[BISHOP] | black[BISHOP] | white[QUEEN] | black[QUEEN]))
+                | (rookAttacks(sq, occupied)
+                    & (white[ROOK] | black[ROOK] | white[QUEEN] | black[QUEEN]));
     }
 
     /**
-     * TRUE iff MV is a possible knight move.
+     * Returns every square attacked by a piece of COLOR,
+     * whether empty or occupied by a piece of either color.
+     * The king of the other color does not block sliding
+     * pieces, so a square off the map is safe for that king
+     * to step to. The map is computed when first needed in a
+     * position and restored, not recomputed, by undo.
      *
-     * @param mv Move to check.
-     * @return Whether a king can make the move.
-     */
-    boolean isPossibleKnight(Move mv) {
-        int rowDiff = Math.abs(mv.getTo().row() - mv.getFrom().row());
-        int colDiff = Math.abs(mv.getTo().col() - mv.getFrom().col());
-        return ((rowDiff == 1 && colDiff == 2) || (rowDiff == 2 && colDiff == 1))
-                && (get(mv.getTo()) == null || get(mv.getTo()).getColor() != get(mv.getFrom()).getColor());
+     * @param color Color of the attacking pieces.
+     * @return Bitboard of attacked squares.
+     */
+    long attacks(Color color) {
+        int c = color.index();
+        if ((_attacksKnown & 1 << c) == 0) {
+            _attacks[c] = computeAttacks(c);
+            _attacksKnown |= 1 << c;
+        }
+        return _attacks[c];
     }
 
     /**
-     * TRUE iff MV is a possible pawn move.
+     * Computes the attack map of the color with index C
+     * from the bitboards.
      *
-     * @param mv Move to check.
-     * @return Whether a pawn can make the move.
-     */
-    boolean isPossiblePawn(Move mv) {
-        Color color = get(mv.getFrom()).getColor();
-        return switch (color) {
-            case WHITE ->
-
-                    // Moving forward
-                    mv.getTo().row() > mv.getFrom().row()
-
-                            /*
-                             * Destination square validity checks.
-                             */
-
-                            // Moving directly upwards into an empty space
-                            && ((mv.direction() == 0 && get(mv.getTo()) == null)
-
-                                //Moving diagonally upwards into a space occupied by opposite color (Black)
-                                || ((mv.direction() == 1 || mv.direction() == 7)
-                                    && get(mv.getTo()) != null
-                                    && get(mv.getTo()).getColor()
-                                        != get(mv.getFrom()).getColor()))
-
-                            /*
-                             * Distance validity checks.
-                             */
-
-                            // Moving by exactly one square
-                            && (mv.distance() == 1
-
-                                // Moving by 2 squares on first move
-                                || (!get(mv.getFrom()).hasMoved()
-                                    && mv.direction() == 0 && mv.distance() == 2));
-
-            case BLACK ->
-
-                    // Moving forward
-                    mv.getTo().row() < mv.getFrom().row()
-
-                            /*
-                             * Destination square validity checks.
-                             */
-
-                            // Moving directly upwards into an empty space
-                            && ((mv.direction() == 4 && get(mv.getTo()) == null)
-
-                                //Moving diagonally upwards into a space occupied by opposite color (Black)
-                                || ((mv.direction() == 3 || mv.direction() == 5) && get(mv.getTo()) != null
-                                    && get(mv.getTo()).getColor() != get(mv.getFrom()).getColor()))
-
-                            /*
-                             * Distance validity checks.
-                             */
-
-                            // Moving by exactly one square
-                            && (mv.distance() == 1
-
-                                // Moving by 2 squares on first move
-                                || (!get(mv.getFrom()).hasMoved()
-                                    && mv.direction() == 4 && mv.distance() == 2));
-        };
+     * @param c Color.index() of the attacking pieces.
+     * @return Bitboard of attacked squares.
+     */
+    private long computeAttacks(int c) {
+        long[] ours = _pieceBB[c];
+        long occupied = _occupied ^ _pieceBB[1 - c][KING];
+        long pawns = ours[PAWN];
+        long attacks = c == 0
+                ? (pawns & ~FILE_A) << 7 | (pawns & ~FILE_H) << 9
+                : (pawns & ~FILE_A) >>> 9 | (pawns & ~FILE_H) >>> 7;
+        for (long bb = ours[KNIGHT]; bb != 0; bb &= bb - 1) {
+            attacks |= KNIGHT_ATTACKS[first(bb)];
+        }
+        for (long bb = ours[BISHOP] | ours[QUEEN]; bb != 0; bb &= bb - 1) {
+            attacks |= bishopAttacks(first(bb), occupied);
+        }
+        for (long bb = ours[ROOK] | ours[QUEEN]; bb != 0; bb &= bb - 1) {
+            attacks |= rookAttacks(first(bb), occupied);
+        }
+        if (ours[KING] != 0) {
+            attacks |= KING_ATTACKS[first(ours[KING])];
+        }
+        return attacks;
     }
 
     /**
-     * TRUE iff MV is a possible queen move.
+     * TRUE iff hypothetically, a square with a king of
+     * a particular color is in check.
      *
-     * @param mv Move to check.
-     * @return Whether a queen can make the move.
+     * @param sq Square to check.
+     * @param color Color of hypothetical king in SQ.
+     * @return Whether the square is in check.
      */
-    boolean isPossibleQueen(Move mv) {
-        int dir = mv.direction();
-        if (dir == -1) {
-            return false;
-        }
-        return checkAllSteps(mv, dir);
+    boolean inCheck(Square sq, Color color) {
+        return (attackersTo(sq.index(), _occupied) & pieces(color.opposite())) != 0;
     }
 
     /**
-     * TRUE iff MV is a possible rook move.
+     * Static exchange evaluation of MOVE: the material the
+     * color to move wins or loses, in centipawns, if both
+     * sides keep capturing on the destination square with
+     * their least valuable attacker for as long as it pays.
+     * Attackers uncovered behind sliding pieces join in as
+     * pieces leave the square's lines. Pins are ignored and
+     * nothing is moved on the board.
      *
-     * @param mv Move to check.
-     * @return Whether a rook can make the move.
+     * @param move Packed move of the color to move.
+     * @return Material balance of the exchange.
      */
-    boolean isPossibleRook(Move mv) {
-        int dir = mv.direction();
-        if (dir != 0 && dir != 2 && dir != 4 && dir != 6) {
-            return false;
+    int see(int move) {
+        if (isCastle(move)) {
+            return 0;
+        }
+        int from = getFrom(move), to = getTo(move);
+        int[] gain = _seeGain;
+        int type = _board[from].type();
+        long occupied = _occupied ^ bit(from);
+        gain[0] = isCapture(move) ? SEE_VALUES[getCaptured(move)] : 0;
+        if (isEnPassant(move)) {
+            occupied ^= bit(to + (to > from ? -BOARD_SIZE : BOARD_SIZE));
+        }
+        if (getPromotion(move) >= 0) {
+            type = getPromotion(move);
+            gain[0] += SEE_VALUES[type] - SEE_VALUES[PAWN];
+        }
+
+        long diagonal = _pieceBB[0][BISHOP] | _pieceBB[1][BISHOP]
+                | _pieceBB[0][QUEEN] | _pieceBB[1][QUEEN];
+        long straight = _pieceBB[0][ROOK] | _pieceBB[1][ROOK]
+                | _pieceBB[0][QUEEN] | _pieceBB[1][QUEEN];
+        long attackers = attackersTo(to, occupied) & occupied;
+        int side = 1 - turn().index();
+        int depth = 0;
+        while (true) {
+            depth++;
+            gain[depth] = SEE_VALUES[type] - gain[depth - 1];
+            if (Math.max(-gain[depth - 1], gain[depth]) < 0) {
+                break;
+            }
+            long ours = attackers & _colorBB[side];
+            if (ours == 0) {
+                break;
+            }
+            type = PAWN;
+            while ((ours & _pieceBB[side][type]) == 0) {
+                type++;
+            }
+            if (type == KING && (attackers & _colorBB[1 - side]) != 0) {
+                break;
+            }
+            occupied ^= Long.lowestOneBit(ours & _pieceBB[side][type]);
+            if (type == PAWN || type == BISHOP || type == QUEEN) {
+                attackers |= bishopAttacks(to, occupied) & diagonal;
+            }
+            if (type == ROOK || type == QUEEN) {
+                attackers |= rookAttacks(to, occupied) & straight;
+            }
+            attackers &= occupied;
+            side = 1 - side;
         }
-        return checkAllSteps(mv, dir);
+        while (--depth > 0) {
+            gain[depth - 1] = -Math.max(-gain[depth - 1], gain[depth]);
+        }
+        return gain[0];
     }
 
     /**
-     * TRUE iff hypothetically, a square with a king of
-     * a particular color is in check.
+     * TRUE iff the king on KING is attacked by BY, reading
+     * the attack map of BY if it is up-to-date and finding
+     * the attackers of the one square otherwise.
      *
-     * @param sq Square to check.
-     * @param color Color of hypothetical king in SQ.
-     * @return Whether the square is in check.
+     * @param king Bitboard of the king.
+     * @param by Color of the attacking pieces.
+     * @return Whether the king is in check.
      */
-    boolean inCheck(Square sq, Color color) {
-        for (Piece piece : getPieces(color.opposite())) {
-            if (get(piece.getLocation()) == piece
-                    && canReach(mv(piece.getLocation(), sq))) {
-                return true;
-            }
+    private boolean attacked(long king, Color by) {
+        if ((_attacksKnown & 1 << by.index()) != 0) {
+            return (_attacks[by.index()] & king) != 0;
         }
-        return false;
+        return (attackersTo(first(king), _occupied) & _colorBB[by.index()]) != 0;
     }
 
     /**
@@ -615,14 +1293,14 @@ public class Board {
         switch (color) {
             case WHITE -> {
                 if (!_whiteInCheckUpdated) {
-                    _whiteInCheck = inCheck(getKingSquare(WHITE), WHITE);
+                    _whiteInCheck = attacked(_pieceBB[0][KING], BLACK);
                     _whiteInCheckUpdated = true;
                 }
                 return _whiteInCheck;
             }
             case BLACK -> {
                 if (!_blackInCheckUpdated) {
-                    _blackInCheck = inCheck(getKingSquare(BLACK), BLACK);
+                    _blackInCheck = attacked(_pieceBB[1][KING], WHITE);
                     _blackInCheckUpdated = true;
                 }
                 return _blackInCheck;
@@ -632,28 +1310,32 @@ public class Board {
     }
 
     /**
-     * Checks if a given move removes the
-     * moving color from check. Assumes that
-     * the moving color is in check.
+     * Checks if moving the piece on FROM to TO leaves
+     * the king of COLOR safe. The move is played out on
+     * copies of the bitboards only, so the board itself
+     * is never modified. Used for en passant captures,
+     * which the pin and check masks do not cover.
      *
-     * @param mv Move to check.
-     * @return TRUE iff MV removes the moving
-     * color from check.
-     */
-    boolean removesCheck(Move mv) {
-        Piece movingPiece = get(mv.getFrom());
-        Piece destPiece = get(mv.getTo());
-        Color color = movingPiece.getColor();
-
-        setUntracked(mv.getFrom(), null);
-        setUntracked(mv.getTo(), movingPiece);
-
-        boolean inCheck = inCheck(color);
-
-        setUntracked(mv.getTo(), destPiece);
-        setUntracked(mv.getFrom(), movingPiece);
-
-        return !inCheck;
+     * @param from Index of starting square.
+     * @param to Index of destination square.
+     * @param color Color of the moving piece.
+     * @return TRUE iff the king of COLOR is not
+     * attacked after the move.
+     */
+    private boolean leavesKingSafe(int from, int to, Color color) {
+        int us = color.index();
+        long king = _pieceBB[us][KING];
+        if (king == 0) {
+            return true;
+        }
+        int kingSq = king == bit(from) ? to : first(king);
+        long captured = bit(to);
+        if (_enPassant != null && to == _enPassant.index()
+                && (_pieceBB[us][PAWN] & bit(from)) != 0) {
+            captured = color == WHITE ? bit(to - BOARD_SIZE) : bit(to + BOARD_SIZE);
+        }
+        long occupied = (_occupied & ~bit(from) & ~captured) | bit(to);
+        return (attackersTo(kingSq, occupied) & _colorBB[1 - us] & ~captured) == 0;
     }
 
     /**
@@ -663,7 +1345,7 @@ public class Board {
      * possible moves.
      */
     boolean checkmate() {
-        return inCheck(turn()) && possibleMoves(turn()).isEmpty();
+        return inCheck(turn()) && generateMoves(turn(), _moveBuffer) == 0;
     }
 
     /**
@@ -674,58 +1356,10 @@ public class Board {
      */
     char outcome() {
         if (!_outcomeKnown) {
-            if (checkmate()) {
-                _outcome = turn().opposite().abbr();
-            } else if (!inCheck(turn()) && possibleMoves(turn()).isEmpty()) {
-                _outcome = GAME_ONGOING;
-            } else if (getPieces(WHITE).size() < 4 && getPieces(BLACK).size() < 4) {
-                boolean whiteDead = false,
-                        blackDead = false;
-                switch (getPieces(WHITE).size()) {
-                    case 1 -> whiteDead = getPieces(WHITE).contains(get(getKingSquare(WHITE)));
-                    case 2, 3 -> {
-                        int k = 0,
-                                b = 0,
-                                n = 0;
-                        for (Piece piece : getPieces(WHITE)) {
-                            switch (piece.abbr()) {
-                                case King.ABBR -> k++;
-                                case Bishop.ABBR -> b++;
-                                case Knight.ABBR -> n++;
-                            }
-                        }
-                        whiteDead = k == 1 && ((b == 1 && n == 0)
-                                || (b == 0 && n == 1)
-                                || (b == 0 && n == 2));
-                    }
-                    default -> throw new IllegalStateException(getPieces(WHITE).size() + " white pieces being tracked.");
-
-                }
-                switch (getPieces(BLACK).size()) {
-                    case 1 -> blackDead = getPieces(BLACK).contains(get(getKingSquare(BLACK)));
-                    case 2, 3 -> {
-                        int k = 0,
-                            b = 0,
-                            n = 0;
-                        for (Piece piece : getPieces(BLACK)) {
-                            switch (piece.abbr()) {
-                                case King.ABBR -> k++;
-                                case Bishop.ABBR -> b++;
-                                case Knight.ABBR -> n++;
-                            }
-                        }
-                        blackDead = k == 1 && ((b == 1 && n == 0)
-                                || (b == 0 && n == 1)
-                                || (b == 0 && n == 2));
-                    }
-                    default -> throw new IllegalStateException(getPieces(BLACK).size() + " black pieces being tracked.");
-
-                }
-                if (whiteDead && blackDead) {
-                    _outcome = DRAW;
-                } else {
-                    _outcome = GAME_ONGOING;
-                }
+            if (generateMoves(turn(), _moveBuffer) == 0) {
+                _outcome = inCheck(turn()) ? turn().opposite().abbr() : DRAW;
+            } else if (insufficientMaterial(WHITE) && insufficientMaterial(BLACK)) {
+                _outcome = DRAW;
             } else {
                 _outcome = GAME_ONGOING;
             }
@@ -734,6 +1368,21 @@ public class Board {
         return _outcome;
     }
 
+    /**
+     * TRUE iff COLOR has a lone king, or a king and only
+     * one bishop, one knight or two knights, which cannot
+     * force checkmate.
+     *
+     * @param color Color to check.
+     * @return Whether COLOR cannot win.
+     */
+    private boolean insufficientMaterial(Color color) {
+        int bishops = pieceCount(color, BISHOP), knights = pieceCount(color, KNIGHT);
+        return pieceCount(color, KING) == 1
+                && pieceCount(color) == 1 + bishops + knights
+                && (bishops + knights <= 1 || knights == 2);
+    }
+
     /**
      * Checks if a color has its possible moves
      * HashSet updated.
@@ -783,16 +1432,14 @@ public class Board {
     HashSet<Move> possibleWhiteMoves() {
         if (!_possibleWhiteMovesUpdated) {
             _possibleWhiteMoves.clear();
-            for (Piece piece : getPieces(WHITE)) {
-                _possibleWhiteMoves.addAll(piecePossibleMoves(piece));
-            }
+            generateMoves(WHITE, _possibleWhiteMoves);
             _possibleWhiteMovesUpdated = true;
         }
         return _possibleWhiteMoves;
     }
 
     /**
-     * Returns a HashSet of all possible wlack
+     * Returns a HashSet of all possible black
      * moves on the current board. If the HashSet is
      * not up-to-date, it is created from scratch and
      * marked as being up-to-date. Otherwise, the
@@ -804,307 +1451,490 @@ public class Board {
     HashSet<Move> possibleBlackMoves() {
         if (!_possibleBlackMovesUpdated) {
             _possibleBlackMoves.clear();
-            for (Piece piece : getPieces(BLACK)) {
-                _possibleBlackMoves.addAll(piecePossibleMoves(piece));
-            }
+            generateMoves(BLACK, _possibleBlackMoves);
             _possibleBlackMovesUpdated = true;
         }
         return _possibleBlackMoves;
     }
 
     /**
-     * Finds all possible moves of a piece.
+     * Fills MOVES with the legal moves of the color to
+     * move as packed moves, with a separate move for each
+     * piece a pawn can promote to.
      *
-     * @param piece Piece to check.
-     * @return HashSet containing all possible
-     * moves of PIECE.
+     * @param moves Array of at least MAX_MOVES moves.
+     * @return Number of moves.
      */
-    HashSet<Move> piecePossibleMoves(Piece piece) {
-        if (piece == null) {
-            return null;
-        }
-        return switch (piece.abbr()) {
-            case Bishop.ABBR -> bishopPossibleMoves(piece);
-            case King.ABBR -> kingPossibleMoves(piece);
-            case Knight.ABBR -> knightPossibleMoves(piece);
-            case Pawn.ABBR -> pawnPossibleMoves(piece);
-            case Queen.ABBR -> queenPossibleMoves(piece);
-            case Rook.ABBR -> rookPossibleMoves(piece);
-            default -> null;
-        };
+    int legalMoves(int[] moves) {
+        return generateMoves(turn(), moves);
     }
 
     /**
-     * Finds all possible moves of a Bishop.
+     * Fills MOVES with the legal captures, en passant
+     * captures and promotions of the color to move.
      *
-     * @param bishop Bishop to check.
-     * @return HashSet containing all possible
-     * moves of BISHOP.
+     * @param moves Array of at least MAX_MOVES moves.
+     * @return Number of moves.
      */
-    HashSet<Move> bishopPossibleMoves(Piece bishop) {
-        HashSet<Move> moves = new HashSet<>();
-        ArrayList<Square> squares = new ArrayList<>(4);
-        squares.add(bishop.getLocation().moveDest(1, 1));
-        squares.add(bishop.getLocation().moveDest(3, 1));
-        squares.add(bishop.getLocation().moveDest(5, 1));
-        squares.add(bishop.getLocation().moveDest(7, 1));
-        while (squaresNotNull(squares)) {
-            for (int i = 0; i < squares.size(); i++) {
-                if (squares.get(i) != null) {
-                    if (isPossible(mv(bishop.getLocation(), squares.get(i)))) {
-                        moves.add(mv(bishop.getLocation(), squares.get(i)));
-                        squares.set(i, squares.get(i).moveDest(2 * i + 1, 1));
-                    } else if (get(squares.get(i)) != null) {
-                        squares.set(i, null);
-                    } else {
-                        squares.set(i, squares.get(i).moveDest(2 * i + 1, 1));
-                    }
-                }
-            }
-        }
-        return moves;
+    int tacticalMoves(int[] moves) {
+        return generateMoves(turn(), moves, TACTICAL_MOVES);
     }
 
     /**
-     * Finds all possible moves of a King.
+     * Fills MOVES with the legal moves of the color to
+     * move that tacticalMoves leaves out: non-capturing
+     * moves that are not promotions, and castles.
      *
-     * @param king King to check.
-     * @return HashSet containing all possible
-     * moves of KING.
+     * @param moves Array of at least MAX_MOVES moves.
+     * @return Number of moves.
      */
-    HashSet<Move> kingPossibleMoves(Piece king) {
-        HashSet<Move> moves = new HashSet<>();
-        Square sq = king.getLocation();
-        for (int dir = 0; dir < 8; dir++) {
-            if (sq.moveDest(dir, 1) != null
-                    && isPossible(mv(sq, sq.moveDest(dir, 1)))) {
-                moves.add(mv(sq, sq.moveDest(dir, 1)));
-            }
+    int quietMoves(int[] moves) {
+        return generateMoves(turn(), moves, QUIET_MOVES);
+    }
+
+    /**
+     * TRUE iff the packed move MOVE, such as a move from the
+     * transposition table, is legal for the color to move,
+     * including its captured piece and flags. Only the moves
+     * of the piece on its starting square are generated.
+     *
+     * @param move Packed move.
+     * @return Whether MOVE can be made.
+     */
+    boolean isLegal(int move) {
+        int from = getFrom(move);
+        Piece piece = _board[from];
+        if (move == 0 || piece == null || piece.getColor() != turn()) {
+            return false;
         }
-        if (!king.hasMoved()) {
-            if (sq == sq("e1")) {
-                if (isPossible(mv("e1-c1"))) {
-                    moves.add(mv("e1-c1"));
-                }
-                if (isPossible(mv("e1-g1"))) {
-                    moves.add(mv("e1-g1"));
-                }
-            } else {
-                if (isPossible(mv("e8-c8"))) {
-                    moves.add(mv("e8-c8"));
-                }
-                if (isPossible(mv("e8-g8"))) {
-                    moves.add(mv("e8-g8"));
-                }
+        Color color = turn();
+        int type = piece.type();
+        updateLegality(color);
+        int count = addMoves(type, from, targets(type, from, color), color, _moveBuffer, 0);
+        if (type == KING) {
+            count = addCastles(color, _moveBuffer, count);
+        }
+        for (int i = 0; i < count; i++) {
+            if (_moveBuffer[i] == move) {
+                return true;
             }
         }
-        return moves;
+        return false;
     }
 
     /**
-     * Finds all possible moves of a Knight.
+     * Returns a random legal move of the color to move, for
+     * light playouts. A piece of that color is picked from the
+     * piece lists and one of its targets() at random, and only
+     * that move is checked for legality. After RANDOM_MOVE_TRIES
+     * picks that were not legal or had no targets, one of the
+     * legal moves is picked instead, which also finds castles
+     * and tells when there are no moves. Moves are therefore not
+     * all equally likely, and pawns always promote to a queen.
      *
-     * @param knight Knight to check.
-     * @return HashSet containing all possible
-     * moves of KNIGHT.
-     */
-    HashSet<Move> knightPossibleMoves(Piece knight) {
-        HashSet<Move> moves = new HashSet<>();
-        Square sq = knight.getLocation();
-        for (int first : new int[] {-2, -1, 1, 2}) {
-            for (int second : new int[] {-2, -1, 1, 2}) {
-                if (Math.abs(first) != Math.abs(second)) {
-                    if (exists(sq.col() + first, sq.row() + second)
-                            && isPossible(mv(sq, sq(sq.col() + first, sq.row() + second)))) {
-                        moves.add(mv(sq, sq(sq.col() + first, sq.row() + second)));
-                    }
-                }
+     * @param random Source of randomness.
+     * @param moves Array of at least MAX_MOVES moves, used
+     *              for the legal moves if needed.
+     * @return Packed move, or 0 if there are no legal moves.
+     */
+    int randomMove(Random random, int[] moves) {
+        Color color = turn();
+        int pieces = pieceCount(color);
+        for (int tries = 0; pieces > 0 && tries < RANDOM_MOVE_TRIES; tries++) {
+            int i = random.nextInt(pieces), type = PAWN;
+            for (; i >= pieceCount(color, type); type++) {
+                i -= pieceCount(color, type);
+            }
+            int from = pieceSquare(color, type, i);
+            long targets = targets(type, from, color);
+            if (targets == 0) {
+                continue;
             }
+            for (int n = random.nextInt(Long.bitCount(targets)); n > 0; n--) {
+                targets &= targets - 1;
+            }
+            int to = first(targets);
+            if (!leavesKingSafe(from, to, color)) {
+                continue;
+            }
+            if (type == PAWN && _enPassant != null && to == _enPassant.index()) {
+                return encode(from, to, PAWN, -1, EN_PASSANT_FLAG);
+            }
+            Piece captured = _board[to];
+            boolean promotion = type == PAWN && (bit(to) & (RANK_1 | RANK_8)) != 0;
+            return encode(from, to, captured == null ? -1 : captured.type(),
+                    promotion ? QUEEN : -1, 0);
         }
-        return moves;
+        int count = legalMoves(moves);
+        return count == 0 ? 0 : moves[random.nextInt(count)];
     }
 
     /**
-     * Finds all possible moves of a Pawn.
+     * Fills MOVES with all possible moves for a color
+     * in a single pass over the bitboards.
      *
-     * @param pawn Pawn to check.
-     * @return HashSet containing all possible
-     * moves of PAWN.
+     * @param color Color to generate moves for.
+     * @param moves Array of at least MAX_MOVES moves.
+     * @return Number of moves.
      */
-    HashSet<Move> pawnPossibleMoves(Piece pawn) {
-        HashSet<Move> moves = new HashSet<>();
-        Square dest;
-        int adjust = 4 * (pawn.getColor() == BLACK ? 1 : 0);
-        for (int i = 7 + adjust; i <= 8 + 1 + adjust; i++) {
-            int dir = i % 8;
-            dest = pawn.getLocation().moveDest(dir, 1);
-            if (dest != null && isPossible(mv(pawn.getLocation(), dest))) {
-                moves.add(mv(pawn.getLocation(), dest));
-                dest = pawn.getLocation().moveDest(dir, 2);
-                if ((dir == 0 || dir == 4)
-                        && isPossible(mv(pawn.getLocation(), dest))) {
-                    moves.add(mv(pawn.getLocation(), dest));
-                }
+    private int generateMoves(Color color, int[] moves) {
+        return generateMoves(color, moves, TACTICAL_MOVES | QUIET_MOVES);
+    }
+
+    /**
+     * Fills MOVES with the possible moves for a color of
+     * the kinds in KINDS, a combination of TACTICAL_MOVES
+     * and QUIET_MOVES.
+     *
+     * @param color Color to generate moves for.
+     * @param moves Array of at least MAX_MOVES moves.
+     * @param kinds Kinds of moves to generate.
+     * @return Number of moves.
+     */
+    private int generateMoves(Color color, int[] moves, int kinds) {
+        updateLegality(color);
+        long[] pieces = _pieceBB[color.index()];
+        long tactical = _colorBB[1 - color.index()];
+        long pawnTactical = tactical | RANK_1 | RANK_8
+                | (_enPassant == null ? 0 : bit(_enPassant));
+        int count = 0;
+        for (int type = PAWN; type <= KING; type++) {
+            long mask = switch (kinds) {
+                case TACTICAL_MOVES -> type == PAWN ? pawnTactical : tactical;
+                case QUIET_MOVES -> type == PAWN ? ~pawnTactical : ~tactical;
+                default -> -1L;
+            };
+            for (long bb = pieces[type]; bb != 0; bb &= bb - 1) {
+                int from = first(bb);
+                count = addMoves(type, from, targets(type, from, color) & mask,
+                        color, moves, count);
             }
         }
-        return moves;
+        if ((kinds & QUIET_MOVES) != 0) {
+            count = addCastles(color, moves, count);
+        }
+        return count;
     }
 
     /**
-     * Finds all possible moves of a Queen.
+     * Adds all possible moves for a color to MOVES.
      *
-     * @param queen Queen to check.
-     * @return HashSet containing all possible
-     * moves of QUEEN.
+     * @param color Color to generate moves for.
+     * @param moves Set to add moves to.
      */
-    HashSet<Move> queenPossibleMoves(Piece queen) {
-        HashSet<Move> moves = new HashSet<>();
-        moves.addAll(bishopPossibleMoves(queen));
-        moves.addAll(rookPossibleMoves(queen));
-        return moves;
+    private void generateMoves(Color color, HashSet<Move> moves) {
+        addAll(_moveBuffer, generateMoves(color, _moveBuffer), moves);
     }
 
     /**
-     * Finds all possible moves of a Rook.
+     * Finds all possible moves of a piece.
      *
-     * @param rook Rook to check.
+     * @param piece Piece to check.
      * @return HashSet containing all possible
-     * moves of ROOK.
+     * moves of PIECE.
      */
-    HashSet<Move> rookPossibleMoves(Piece rook) {
+    HashSet<Move> piecePossibleMoves(Piece piece) {
+        if (piece == null) {
+            return null;
+        }
         HashSet<Move> moves = new HashSet<>();
-        ArrayList<Square> squares = new ArrayList<>(4);
-        squares.add(rook.getLocation().moveDest(0, 1));
-        squares.add(rook.getLocation().moveDest(2, 1));
-        squares.add(rook.getLocation().moveDest(4, 1));
-        squares.add(rook.getLocation().moveDest(6, 1));
-        while (squaresNotNull(squares)) {
-            for (int i = 0; i < squares.size(); i++) {
-                if (squares.get(i) != null) {
-                    if (isPossible(mv(rook.getLocation(), squares.get(i)))) {
-                        moves.add(mv(rook.getLocation(), squares.get(i)));
-                        squares.set(i, squares.get(i).moveDest(2 * i, 1));
-                    } else if (get(squares.get(i)) != null) {
-                        squares.set(i, null);
-                    } else {
-                        squares.set(i, squares.get(i).moveDest(2 * i, 1));
-                    }
-                }
-            }
+        int from = piece.getLocation().index(), type = piece.type();
+        Color color = piece.getColor();
+        updateLegality(color);
+        int count = addMoves(type, from, targets(type, from, color), color, _moveBuffer, 0);
+        if (type == KING) {
+            count = addCastles(color, _moveBuffer, count);
         }
+        addAll(_moveBuffer, count, moves);
         return moves;
     }
 
     /**
-     * Checks whether any square in a List
-     * of squares is NULL.
+     * Adds the first COUNT packed moves of PACKED to MOVES
+     * as Move objects, counting all promotions of a pawn
+     * move as one.
      *
-     * @param squares List of squares to check.
-     * @return TRUE if at least one SQUARE in
-     * the List is not NULL.
-     */
-    boolean squaresNotNull(List<Square> squares) {
-        for (Square sq : squares) {
-            if (sq != null) {
-                return true;
+     * @param packed Packed moves.
+     * @param count Number of packed moves.
+     * @param moves Set to add moves to.
+     */
+    private static void addAll(int[] packed, int count, HashSet<Move> moves) {
+        for (int i = 0; i < count; i++) {
+            int promotion = getPromotion(packed[i]);
+            if (promotion < 0 || promotion == QUEEN) {
+                moves.add(toMove(packed[i]));
             }
         }
-        return false;
     }
 
     /**
-     * Returns the king and rook involved in a castle move.
+     * Returns the squares that a piece of the given
+     * type and color on FROM could move to, ignoring
+     * castling and whether its own king is left in check.
      *
-     * @param mv Move to check.
-     * @return List containing king and rook.
-     */
-    List<Piece> getCastlePieces(Move mv) {
-        assert mv.isCastle();
+     * @param type Type of piece.
+     * @param from Index of the piece's square.
+     * @param color Color of the piece.
+     * @return Bitboard of destination squares.
+     */
+    long targets(int type, int from, Color color) {
+        int us = color.index();
+        long own = _colorBB[us];
+        return switch (type) {
+            case PAWN -> {
+                long empty = ~_occupied;
+                long pushes;
+                if (color == WHITE) {
+                    pushes = (bit(from) << 8) & empty;
+                    pushes |= ((pushes & RANK_3) << 8) & empty;
+                } else {
+                    pushes = (bit(from) >>> 8) & empty;
+                    pushes |= ((pushes & RANK_6) >>> 8) & empty;
+                }
+                long enemies = _colorBB[1 - us];
+                if (_enPassant != null && color == turn()) {
+                    enemies |= bit(_enPassant);
+                }
+                yield pushes | (PAWN_ATTACKS[us][from] & enemies);
+            }
+            case KNIGHT -> KNIGHT_ATTACKS[from] & ~own;
+            case BISHOP -> bishopAttacks(from, _occupied) & ~own;
+            case ROOK -> rookAttacks(from, _occupied) & ~own;
+            case QUEEN -> queenAttacks(from, _occupied) & ~own;
+            case KING -> KING_ATTACKS[from] & ~own;
+            default -> 0;
+        };
+    }
 
-        Piece king = get(mv.getFrom());
-        Piece rook = null;
+    /**
+     * Finds the pieces giving check to the king of COLOR
+     * and the pieces of COLOR pinned to it, and sets
+     * _checkMask and _pinned so that addMoves can tell
+     * whether a move is legal without playing it out.
+     *
+     * @param color Color about to move.
+     */
+    private void updateLegality(Color color) {
+        int us = color.index();
+        long king = _pieceBB[us][KING];
+        _checkMask = -1L;
+        _pinned = 0;
+        if (king == 0) {
+            _kingSq = -1;
+            return;
+        }
+        _kingSq = first(king);
+
+        long[] them = _pieceBB[1 - us];
+        long snipers = (rookAttacks(_kingSq, 0) & (them[ROOK] | them[QUEEN]))
+                | (bishopAttacks(_kingSq, 0) & (them[BISHOP] | them[QUEEN]));
+        for (; snipers != 0; snipers &= snipers - 1) {
+            long blockers = between(_kingSq, first(snipers)) & _occupied;
+            if (blockers != 0 && (blockers & (blockers - 1)) == 0) {
+                _pinned |= blockers & _colorBB[us];
+            }
+        }
+
+        if ((attacks(color.opposite()) & king) == 0) {
+            return;
+        }
+        long checkers = attackersTo(_kingSq, _occupied) & _colorBB[1 - us];
+        if (checkers != 0) {
+            _checkMask = (checkers & (checkers - 1)) != 0
+                    ? 0 : checkers | between(_kingSq, first(checkers));
+        }
+    }
 
-        if (sq("c1") == mv.getTo()) {
-            rook = get(sq("a1"));
-        } else if (sq("g1") == mv.getTo()) {
-            rook = get(sq("h1"));
-        } else if (sq("c8") == mv.getTo()) {
-            rook = get(sq("a8"));
-        } else if (sq("g8") == mv.getTo()) {
-            rook = get(sq("h8"));
+    /**
+     * Adds the moves from FROM to each square of TARGETS
+     * that do not leave the king of COLOR in check, using
+     * the masks found by updateLegality. Only en passant
+     * captures, which can uncover a check along the row,
+     * are played out on the bitboards.
+     *
+     * @param type Type of the moving piece.
+     * @param from Index of starting square.
+     * @param targets Bitboard of destination squares.
+     * @param color Color of the moving piece.
+     * @param moves Array to add packed moves to.
+     * @param count Number of moves already in MOVES.
+     * @return Number of moves in MOVES afterwards.
+     */
+    private int addMoves(int type, int from, long targets, Color color, int[] moves, int count) {
+        if (type == KING) {
+            targets &= ~attacks(color.opposite());
+        } else {
+            if (type == PAWN && _enPassant != null && (targets & bit(_enPassant)) != 0) {
+                int to = _enPassant.index();
+                targets ^= bit(to);
+                if (leavesKingSafe(from, to, color)) {
+                    moves[count++] = encode(from, to, PAWN, -1, EN_PASSANT_FLAG);
+                }
+            }
+            targets &= _checkMask;
+            if ((_pinned & bit(from)) != 0) {
+                targets &= line(_kingSq, from);
+            }
+        }
+        for (; targets != 0; targets &= targets - 1) {
+            int to = first(targets);
+            Piece captured = _board[to];
+            int capturedType = captured == null ? -1 : captured.type();
+            if (type == PAWN && (bit(to) & (RANK_1 | RANK_8)) != 0) {
+                for (int promotion = QUEEN; promotion >= KNIGHT; promotion--) {
+                    moves[count++] = encode(from, to, capturedType, promotion, 0);
+                }
+            } else {
+                moves[count++] = encode(from, to, capturedType, -1, 0);
+            }
         }
+        return count;
+    }
 
-        ArrayList<Piece> pieces = new ArrayList<>();
-        pieces.add(king);
-        pieces.add(rook);
+    /**
+     * Adds the possible castle moves of a color to
+     * MOVES. The king and rook must not have moved,
+     * the squares between them must be empty, and the
+     * king may not start on, cross or land on an
+     * attacked square.
+     *
+     * @param color Color to castle.
+     * @param moves Array to add packed moves to.
+     * @param count Number of moves already in MOVES.
+     * @return Number of moves in MOVES afterwards.
+     */
+    private int addCastles(Color color, int[] moves, int count) {
+        int row = color == WHITE ? 0 : BOARD_SIZE - 1;
+        int king = row * BOARD_SIZE + 4;
+        long attacked = attacks(color.opposite()) >>> (row * BOARD_SIZE);
+        if ((attacked & bit(4)) != 0) {
+            return count;
+        }
+        if (canCastle(color, 7)
+                && (_occupied & (0x60L << (row * BOARD_SIZE))) == 0
+                && (attacked & 0x60L) == 0) {
+            moves[count++] = encode(king, king + 2, -1, -1, CASTLE_FLAG);
+        }
+        if (canCastle(color, 0)
+                && (_occupied & (0x0EL << (row * BOARD_SIZE))) == 0
+                && (attacked & 0x0CL) == 0) {
+            moves[count++] = encode(king, king - 2, -1, -1, CASTLE_FLAG);
+        }
+        return count;
+    }
 
-        return pieces;
+    /**
+     * TRUE iff COLOR still has the right to castle with
+     * the rook in column ROOKCOL, that is, neither its king
+     * nor that rook has moved from its starting square.
+     *
+     * @param color Color to castle.
+     * @param rookCol Column of the rook, 0 or 7.
+     * @return Whether the castling right remains.
+     */
+    boolean canCastle(Color color, int rookCol) {
+        int row = color == WHITE ? 0 : BOARD_SIZE - 1;
+        Piece king = get(sq(4, row)), rook = get(sq(rookCol, row));
+        return (_castling & castlingRight(color, rookCol)) != 0
+                && king != null && king.type() == KING && king.getColor() == color
+                && rook != null && rook.type() == ROOK && rook.getColor() == color;
+    }
+
+    /**
+     * Returns the bit of _castling for castling with
+     * the rook in column ROOKCOL.
+     *
+     * @param color Color to castle.
+     * @param rookCol Column of the rook, 0 or 7.
+     * @return Castling right bit.
+     */
+    static int castlingRight(Color color, int rookCol) {
+        return 1 << (2 * color.index() + (rookCol == 0 ? 1 : 0));
     }
 
     /**
      * Gets all pieces of a certain color.
      *
      * @param color Color of pieces.
-     * @return Hashset of pieces.
+     * @return List of pieces, grouped by type.
      */
-    HashSet<Piece> getPieces(Color color) {
-        return switch (color) {
-            case WHITE -> _whitePieces;
-            case BLACK -> _blackPieces;
-            default -> throw new IllegalStateException("Piece color must be WHITE or BLACK.");
-        };
+    List<Piece> getPieces(Color color) {
+        List<Piece> pieces = new ArrayList<>(16);
+        for (int type = PAWN; type <= KING; type++) {
+            for (int i = 0; i < pieceCount(color, type); i++) {
+                pieces.add(_board[pieceSquare(color, type, i)]);
+            }
+        }
+        return pieces;
     }
 
     /**
-     * TRUE iff this board contains PIECE
+     * Returns the number of pieces of a color and type.
      *
-     * @param piece Piece to check for.
-     * @return Whether this board contains the piece.
+     * @param color Color of pieces.
+     * @param type Type of pieces.
+     * @return Number of pieces.
      */
-    boolean hasPiece(Piece piece) {
-        return switch (piece.getColor()) {
-            case WHITE -> _whitePieces.contains(piece);
-            case BLACK -> _blackPieces.contains(piece);
-            default -> throw new IllegalStateException("Piece color must be WHITE or BLACK.");
-        };
+    int pieceCount(Color color, int type) {
+        return _pieceCounts[color.index() * NUM_TYPES + type];
     }
 
     /**
-     * Adds a piece to the board to be tracked.
+     * Returns the number of pieces of a color.
      *
-     * @param piece Piece to add.
+     * @param color Color of pieces.
+     * @return Number of pieces.
      */
-    void addPiece(Piece piece) {
-        switch (piece.getColor()) {
-            case WHITE -> _whitePieces.add(piece);
-            case BLACK -> _blackPieces.add(piece);
-            default -> throw new IllegalStateException("Piece color must be WHITE or BLACK.");
+    int pieceCount(Color color) {
+        int count = 0;
+        for (int type = PAWN; type <= KING; type++) {
+            count += pieceCount(color, type);
         }
+        return count;
+    }
+
+    /**
+     * Returns the square of the Ith piece of a color and
+     * type, for I from 0 to pieceCount(COLOR, TYPE) - 1.
+     * The order changes as pieces are removed.
+     *
+     * @param color Color of pieces.
+     * @param type Type of pieces.
+     * @param i Position in the list.
+     * @return Index of the piece's square.
+     */
+    int pieceSquare(Color color, int type, int i) {
+        return _pieceLists[(color.index() * NUM_TYPES + type) * PIECE_LIST_CAPACITY + i];
     }
 
     /**
-     * Removes a piece from the board and returns it.
+     * Appends the square SQ of PIECE to its piece list.
      *
-     * @param piece Piece to remove.
-     * @return Removed piece.
+     * @param piece Piece being placed.
+     * @param sq Index of its square.
      */
-    Piece removePiece(Piece piece) {
-        switch (piece.getColor()) {
-            case WHITE:
-                _whitePieces.remove(piece);
-                if (piece.abbr() == King.ABBR) {
-                    updateKingSquare(null, WHITE);
-                }
-                break;
-            case BLACK:
-                _blackPieces.remove(piece);
-                if (piece.abbr() == King.ABBR) {
-                    updateKingSquare(null, BLACK);
-                }
-                break;
-            default: throw new IllegalStateException("Piece color must be WHITE or BLACK.");
+    private void addToList(Piece piece, int sq) {
+        int list = piece.getColor().index() * NUM_TYPES + piece.type();
+        if (_pieceCounts[list] == PIECE_LIST_CAPACITY) {
+            throw new IllegalStateException("Too many pieces of one kind on the board.");
         }
-        return piece;
+        int i = _pieceCounts[list]++;
+        _pieceLists[list * PIECE_LIST_CAPACITY + i] = sq;
+        _listIndex[sq] = i;
+    }
+
+    /**
+     * Removes the square SQ of PIECE from its piece list
+     * by moving the last square of the list into its place.
+     *
+     * @param piece Piece being removed.
+     * @param sq Index of its square.
+     */
+    private void removeFromList(Piece piece, int sq) {
+        int list = piece.getColor().index() * NUM_TYPES + piece.type();
+        int last = _pieceLists[list * PIECE_LIST_CAPACITY + --_pieceCounts[list]];
+        _pieceLists[list * PIECE_LIST_CAPACITY + _listIndex[sq]] = last;
+        _listIndex[last] = _listIndex[sq];
     }
 
     /**
@@ -1170,10 +2000,38 @@ public class Board {
     private final Piece[] _board = new Piece[NUM_SQUARES];
 
     /**
-     * All Pieces of a particular color.
+     * Bitboards of the pieces of each color and type,
+     * indexed by Color.index() and piece type.
+     */
+    private final long[][] _pieceBB = new long[2][NUM_TYPES];
+
+    /**
+     * Bitboards of all pieces of each color, indexed
+     * by Color.index().
+     */
+    private final long[] _colorBB = new long[2];
+
+    /**
+     * Bitboard of all occupied squares.
+     */
+    private long _occupied;
+
+    /**
+     * Squares of the pieces of each color and type, in
+     * lists of PIECE_LIST_CAPACITY indexed by
+     * Color.index() * NUM_TYPES + type.
+     */
+    private final int[] _pieceLists = new int[2 * NUM_TYPES * PIECE_LIST_CAPACITY];
+
+    /**
+     * Lengths of the piece lists.
+     */
+    private final int[] _pieceCounts = new int[2 * NUM_TYPES];
+
+    /**
+     * Position of each occupied square in its piece list.
      */
-    final HashSet<Piece> _whitePieces = new HashSet<>(32),
-            _blackPieces = new HashSet<>(32);
+    private final int[] _listIndex = new int[NUM_SQUARES];
 
     /**
      * Sets of all possible moves on the current
@@ -1182,6 +2040,24 @@ public class Board {
     final HashSet<Move> _possibleWhiteMoves = new HashSet<>(),
             _possibleBlackMoves = new HashSet<>();
 
+    /**
+     * Scratch array of packed moves used to fill the
+     * possible moves sets.
+     */
+    private final int[] _moveBuffer = new int[MAX_MOVES];
+
+    /**
+     * Destinations that resolve a check on the king of the
+     * color last passed to updateLegality, or all squares
+     * if it is not in check, and its pieces pinned to it.
+     */
+    private long _checkMask, _pinned;
+
+    /**
+     * Index of the square of that king, or -1 if none.
+     */
+    private int _kingSq;
+
     /**
      * TRUE iff possible moves sets are up-to-date.
      */
@@ -1211,6 +2087,24 @@ public class Board {
      */
     boolean _outcomeKnown = false;
 
+    /**
+     * Material balance after each capture of the exchange
+     * being evaluated by see().
+     */
+    private final int[] _seeGain = new int[2 * NUM_SQUARES];
+
+    /**
+     * Attack maps of white and black, indexed by
+     * Color.index(), as returned by attacks().
+     */
+    private final long[] _attacks = new long[2];
+
+    /**
+     * Bit Color.index() is set iff the attack map of
+     * that color is up-to-date.
+     */
+    private int _attacksKnown;
+
     /**
      * Locations of the kings.
      */
@@ -1222,56 +2116,85 @@ public class Board {
     private Color _turn;
 
     /**
-     * Board history.
+     * The square a pawn skipped over with a two-square
+     * move on the previous turn, or null.
      */
-    private final List<MovePair> _movesMade = new ArrayList<>();
-}
+    private Square _enPassant;
 
-/**
- * Wrapper class for storing a move and
- * the corresponding piece that made the
- * move.
- *
- * @author Richard Hu
- */
-class MovePair {
+    /**
+     * The castling rights still held by each color, as
+     * bits given by castlingRight().
+     */
+    private int _castling;
 
     /**
-     * Default constructor.
-     *
-     * @param mv Move.
-     * @param moving Moving piece.
+     * Zobrist hash of the current position, and of
+     * its pawns alone.
      */
-    MovePair(Move mv, char moving) {
-        _mv = mv;
-        _moving = moving;
-    }
+    private long _hash, _pawnHash;
 
     /**
-     * Returns move.
-     *
-     * @return _mv.
+     * Piece-square tables evaluating this board.
      */
-    Move mv() {
-        return _mv;
-    }
+    private Evaluation _evaluation;
 
     /**
-     * Returns moving piece.
-     *
-     * @return _moving.
+     * Midgame and endgame piece-square totals for white, and
+     * the game phase, of the pieces on the board, by _evaluation.
      */
-    char moving() {
-        return _moving;
-    }
+    private int _midgame, _endgame, _phase;
+
+    /**
+     * Number of moves made that can be taken back.
+     */
+    private int _ply;
 
     /**
-     * Move.
+     * Undo stack, indexed by ply: the move made (with its
+     * captured piece), the piece that moved, the captured
+     * piece, and the packed state from saveState().
      */
-    private Move _mv;
+    private Move[] _undoMoves;
+    private Piece[] _undoMoving, _undoCaptured;
+    private int[] _undoStates;
 
     /**
-     * Moving piece.
+     * Attack maps of white and black before each move on
+     * the undo stack, indexed by 2 * ply + Color.index(),
+     * valid where the saved state marks them known.
      */
-    private char _moving;
-}
\ No newline at end of file
+    private long[] _undoAttacks;
+
+    /**
+     * Neural network evaluating this board, or null.
+     */
+    private Nnue _network;
+
+    /**
+     * Accumulators of _network for the position at each ply,
+     * indexed by ply, Color.index() of the side whose point of
+     * view they take, and position in the accumulator. Making a
+     * move copies the accumulators of the ply before, and undo
+     * drops them again.
+     */
+    private short[] _accumulators;
+
+    /**
+     * TRUE where an accumulator, indexed by 2 * ply +
+     * Color.index(), must be rebuilt before it is used.
+     */
+    private boolean[] _accumulatorsStale;
+
+    /**
+     * TRUE while undo puts pieces back, which leaves the
+     * accumulators alone.
+     */
+    private boolean _undoing;
+
+    /**
+     * Pieces created by promotions, indexed by ply, color
+     * and piece type, so that replaying a promotion at the
+     * same ply reuses the same piece.
+     */
+    private Piece[] _promotionPieces;
+}
@@ -50,4 +50,17 @@ public enum Color {
             default -> throw new RuntimeException("Unreachable statement");
         };
     }
+
+    /** Returns the index of this color, used to
+     * address per-color arrays and bitboards.
+     *
+     * @return 0 for white and 1 for black.
+     */
+    int index() {
+        return switch (this) {
+            case WHITE -> 0;
+            case BLACK -> 1;
+            default -> throw new RuntimeException("Unreachable statement");
+        };
+    }
 }
@@ -0,0 +1,401 @@
+package chessai;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import static chessai.Board.*;
+import static chessai.Piece.*;
+
+/**
+ * Tapered piece-square tables. Every piece on every square
+ * has a midgame and an endgame score, its material value plus
+ * a bonus for the square, and a position scores the sum over
+ * its pieces, white counting up and black down. The two sums
+ * are blended by the game phase, which falls from MAX_PHASE
+ * towards 0 as knights, bishops, rooks and queens come off.
+ * Board keeps the sums up-to-date as pieces are placed and
+ * removed, so evaluating a position costs a few operations.
+ *
+ * Tables are immutable, so a board's running sums always
+ * match the tables it was built with. Other tables are read
+ * from a text file with load() and written out with save().
+ * The tables named by the chessai.pst system property, or
+ * the defaults, are used by every new Board; setEvaluation()
+ * switches a board to others.
+ *
+ * @author Richard Hu
+ */
+final class Evaluation {
+
+    /**
+     * Game phase of a full set of pieces, and the
+     * contribution of one piece of each type to it.
+     */
+    static final int MAX_PHASE = 24;
+    static final int[] PHASE_WEIGHTS = {0, 1, 1, 2, 4, 0};
+
+    /**
+     * System property naming a file of tables that new
+     * boards evaluate with.
+     */
+    static final String TABLES_PROPERTY = "chessai.pst";
+
+    /**
+     * Creates tables from piece values and square bonuses
+     * of white pieces, which are not copied.
+     *
+     * @param midgameValues Midgame values of the piece types.
+     * @param endgameValues Endgame values of the piece types.
+     * @param squares Square bonuses by phase, type and square.
+     */
+    private Evaluation(int[] midgameValues, int[] endgameValues, int[][][] squares) {
+        _midgameValues = midgameValues;
+        _endgameValues = endgameValues;
+        _squares = squares;
+        int[][] values = {midgameValues, endgameValues};
+        int[][] scores = {_midgame, _endgame};
+        for (int phase = 0; phase < 2; phase++) {
+            for (int type = PAWN; type <= KING; type++) {
+                for (int sq = 0; sq < NUM_SQUARES; sq++) {
+                    int white = values[phase][type] + squares[phase][type][sq ^ 56];
+                    int black = values[phase][type] + squares[phase][type][sq];
+                    scores[phase][type * NUM_SQUARES + sq] = white;
+                    scores[phase][(NUM_TYPES + type) * NUM_SQUARES + sq] = -black;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the tables named by the chessai.pst system
+     * property, or the PeSTO tables if it is not set.
+     *
+     * @return The default tables.
+     */
+    static Evaluation defaultTables() {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns the midgame score of a piece of the given
+     * color and type on the square with index SQ, negative
+     * for black.
+     *
+     * @param color Color of the piece.
+     * @param type Type of the piece.
+     * @param sq Index of the square.
+     * @return Midgame score in centipawns for white.
+     */
+    int midgame(Color color, int type, int sq) {
+        return _midgame[(color.index() * NUM_TYPES + type) * NUM_SQUARES + sq];
+    }
+
+    /**
+     * Returns the endgame score of a piece of the given
+     * color and type on the square with index SQ, negative
+     * for black.
+     *
+     * @param color Color of the piece.
+     * @param type Type of the piece.
+     * @param sq Index of the square.
+     * @return Endgame score in centipawns for white.
+     */
+    int endgame(Color color, int type, int sq) {
+        return _endgame[(color.index() * NUM_TYPES + type) * NUM_SQUARES + sq];
+    }
+
+    /**
+     * Blends a midgame and an endgame score by PHASE.
+     *
+     * @param midgame Midgame score.
+     * @param endgame Endgame score.
+     * @param phase Game phase, capped at MAX_PHASE.
+     * @return Tapered score.
+     */
+    static int taper(int midgame, int endgame, int phase) {
+        phase = Math.min(phase, MAX_PHASE);
+        return (midgame * phase + endgame * (MAX_PHASE - phase)) / MAX_PHASE;
+    }
+
+    /**
+     * Reads tables from FILE. The file holds whitespace-separated
+     * tokens, with everything after a '#' on a line ignored. A
+     * section is a name followed by its numbers: "midgame.values"
+     * and "endgame.values" take the six piece values from pawn
+     * to king, and sections such as "midgame.knight" take 64
+     * square bonuses for a white piece, from a8 to h8 down to a1
+     * to h1. Black uses the same tables mirrored. Sections left
+     * out keep the PeSTO values.
+     *
+     * @param file File to read.
+     * @return The tables.
+     * @throws IOException If FILE cannot be read.
+     */
+    static Evaluation load(Path file) throws IOException {
+        List<String> tokens = new ArrayList<>();
+        for (String line : Files.readAllLines(file)) {
+            int comment = line.indexOf('#');
+            String content = (comment < 0 ? line : line.substring(0, comment)).trim();
+            if (!content.isEmpty()) {
+                tokens.addAll(List.of(content.split("\\s+")));
+            }
+        }
+
+        int[][] values = {PESTO_MIDGAME_VALUES.clone(), PESTO_ENDGAME_VALUES.clone()};
+        int[][][] squares = new int[2][NUM_TYPES][];
+        for (int phase = 0; phase < 2; phase++) {
+            for (int type = PAWN; type <= KING; type++) {
+                squares[phase][type] = PESTO_SQUARES[phase][type].clone();
+            }
+        }
+        for (int i = 0; i < tokens.size(); ) {
+            String name = tokens.get(i++);
+            int dot = name.indexOf('.');
+            int phase = dot < 0 ? -1 : List.of(PHASE_NAMES).indexOf(name.substring(0, dot));
+            String table = dot < 0 ? "" : name.substring(dot + 1);
+            int[] target;
+            if (phase >= 0 && table.equals("values")) {
+                target = values[phase];
+            } else if (phase >= 0 && List.of(TYPE_NAMES).contains(table)) {
+                target = squares[phase][List.of(TYPE_NAMES).indexOf(table)];
+            } else {
+                throw new IllegalArgumentException("Unknown table " + name + " in " + file + ".");
+            }
+            if (i + target.length > tokens.size()) {
+                throw new IllegalArgumentException("Table " + name + " in " + file
+                        + " needs " + target.length + " numbers.");
+            }
+            for (int j = 0; j < target.length; j++) {
+                try {
+                    target[j] = Integer.parseInt(tokens.get(i++));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Table " + name + " in " + file
+                            + " has a bad number: " + tokens.get(i - 1), e);
+                }
+            }
+        }
+
+        return new Evaluation(values[0], values[1], squares);
+    }
+
+    /**
+     * Writes these tables to FILE in the format read by load().
+     *
+     * @param file File to write.
+     * @throws IOException If FILE cannot be written.
+     */
+    void save(Path file) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(file)) {
+            int[][] values = {_midgameValues, _endgameValues};
+            for (int phase = 0; phase < 2; phase++) {
+                out.write(PHASE_NAMES[phase] + ".values");
+                for (int value : values[phase]) {
+                    out.write(" " + value);
+                }
+                out.newLine();
+            }
+            for (int phase = 0; phase < 2; phase++) {
+                for (int type = PAWN; type <= KING; type++) {
+                    out.newLine();
+                    out.write(PHASE_NAMES[phase] + "." + TYPE_NAMES[type]);
+                    out.newLine();
+                    for (int row = 0; row < BOARD_SIZE; row++) {
+                        StringBuilder sb = new StringBuilder();
+                        for (int col = 0; col < BOARD_SIZE; col++) {
+                            sb.append(String.format("%5d", _squares[phase][type][row * BOARD_SIZE + col]));
+                        }
+                        out.write(sb.toString());
+                        out.newLine();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Names of the two phases and of the piece types
+     * in table files.
+     */
+    private static final String[] PHASE_NAMES = {"midgame", "endgame"},
+            TYPE_NAMES = {"pawn", "knight", "bishop", "rook", "queen", "king"};
+
+    /**
+     * Default material values of the piece types in the
+     * midgame and in the endgame.
+     */
+    private static final int[] PESTO_MIDGAME_VALUES = {82, 337, 365, 477, 1025, 0},
+            PESTO_ENDGAME_VALUES = {94, 281, 297, 512, 936, 0};
+
+    /**
+     * Default square bonuses of white pieces, indexed by phase,
+     * type and square as seen from white, from a8 to h1. These
+     * are the tuned tables of the PeSTO evaluation.
+     */
+    private static final int[][][] PESTO_SQUARES = {
+        {
+            {
+                  0,    0,    0,    0,    0,    0,    0,    0,
+                 98,  134,   61,   95,   68,  126,   34,  -11,
+                 -6,    7,   26,   31,   65,   56,   25,  -20,
+                -14,   13,    6,   21,   23,   12,   17,  -23,
+                -27,   -2,   -5,   12,   17,    6,   10,  -25,
+                -26,   -4,   -4,  -10,    3,    3,   33,  -12,
+                -35,   -1,  -20,  -23,  -15,   24,   38,  -22,
+                  0,    0,    0,    0,    0,    0,    0,    0,
+            },
+            {
+               -167,  -89,  -34,  -49,   61,  -97,  -15, -107,
+                -73,  -41,   72,   36,   23,   62,    7,  -17,
+                -47,   60,   37,   65,   84,  129,   73,   44,
+                 -9,   17,   19,   53,   37,   69,   18,   22,
+                -13,    4,   16,   13,   28,   19,   21,   -8,
+                -23,   -9,   12,   10,   19,   17,   25,  -16,
+                -29,  -53,  -12,   -3,   -1,   18,  -14,  -19,
+               -105,  -21,  -58,  -33,  -17,  -28,  -19,  -23,
+            },
+            {
+                -29,    4,  -82,  -37,  -25,  -42,    7,   -8,
+                -26,   16,  -18,  -13,   30,   59,   18,  -47,
+                -16,   37,   43,   40,   35,   50,   37,   -2,
+                 -4,    5,   19,   50,   37,   37,    7,   -2,
+                 -6,   13,   13,   26,   34,   12,   10,    4,
+                  0,   15,   15,   15,   14,   27,   18,   10,
+                  4,   15,   16,    0,    7,   21,   33,    1,
+                -33,   -3,  -14,  -21,  -13,  -12,  -39,  -21,
+            },
+            {
+                 32,   42,   32,   51,   63,    9,   31,   43,
+                 27,   32,   58,   62,   80,   67,   26,   44,
+                 -5,   19,   26,   36,   17,   45,   61,   16,
+                -24,  -11,    7,   26,   24,   35,   -8,  -20,
+                -36,  -26,  -12,   -1,    9,   -7,    6,  -23,
+                -45,  -25,  -16,  -17,    3,    0,   -5,  -33,
+                -44,  -16,  -20,   -9,   -1,   11,   -6,  -71,
+                -19,  -13,    1,   17,   16,    7,  -37,  -26,
+            },
+            {
+                -28,    0,   29,   12,   59,   44,   43,   45,
+                -24,  -39,   -5,    1,  -16,   57,   28,   54,
+                -13,  -17,    7,    8,   29,   56,   47,   57,
+                -27,  -27,  -16,  -16,   -1,   17,   -2,    1,
+                 -9,  -26,   -9,  -10,   -2,   -4,    3,   -3,
+                -14,    2,  -11,   -2,   -5,    2,   14,    5,
+                -35,   -8,   11,    2,    8,   15,   -3,    1,
+                 -1,  -18,   -9,   10,  -15,  -25,  -31,  -50,
+            },
+            {
+                -65,   23,   16,  -15,  -56,  -34,    2,   13,
+                 29,   -1,  -20,   -7,   -8,   -4,  -38,  -29,
+                 -9,   24,    2,  -16,  -20,    6,   22,  -22,
+                -17,  -20,  -12,  -27,  -30,  -25,  -14,  -36,
+                -49,   -1,  -27,  -39,  -46,  -44,  -33,  -51,
+                -14,  -14,  -22,  -46,  -44,  -30,  -15,  -27,
+                  1,    7,   -8,  -64,  -43,  -16,    9,    8,
+                -15,   36,   12,  -54,    8,  -28,   24,   14,
+            },
+        },
+        {
+            {
+                  0,    0,    0,    0,    0,    0,    0,    0,
+                178,  173,  158,  134,  147,  132,  165,  187,
+                 94,  100,   85,   67,   56,   53,   82,   84,
+                 32,   24,   13,    5,   -2,    4,   17,   17,
+                 13,    9,   -3,   -7,   -7,   -8,    3,   -1,
+                  4,    7,   -6,    1,    0,   -5,   -1,   -8,
+                 13,    8,    8,   10,   13,    0,    2,   -7,
+                  0,    0,    0,    0,    0,    0,    0,    0,
+            },
+            {
+                -58,  -38,  -13,  -28,  -31,  -27,  -63,  -99,
+                -25,   -8,  -25,   -2,   -9,  -25,  -24,  -52,
+                -24,  -20,   10,    9,   -1,   -9,  -19,  -41,
+                -17,    3,   22,   22,   22,   11,    8,  -18,
+                -18,   -6,   16,   25,   16,   17,    4,  -18,
+                -23,   -3,   -1,   15,   10,   -3,  -20,  -22,
+                -42,  -20,  -10,   -5,   -2,  -20,  -23,  -44,
+                -29,  -51,  -23,  -15,  -22,  -18,  -50,  -64,
+            },
+            {
+                -14,  -21,  -11,   -8,   -7,   -9,  -17,  -24,
+                 -8,   -4,    7,  -12,   -3,  -13,   -4,  -14,
+                  2,   -8,    0,   -1,   -2,    6,    0,    4,
+                 -3,    9,   12,    9,   14,   10,    3,    2,
+                 -6,    3,   13,   19,    7,   10,   -3,   -9,
+                -12,   -3,    8,   10,   13,    3,   -7,  -15,
+                -14,  -18,   -7,   -1,    4,   -9,  -15,  -27,
+                -23,   -9,  -23,   -5,   -9,  -16,   -5,  -17,
+            },
+            {
+                 13,   10,   18,   15,   12,   12,    8,    5,
+                 11,   13,   13,   11,   -3,    3,    8,    3,
+                  7,    7,    7,    5,    4,   -3,   -5,   -3,
+                  4,    3,   13,    1,    2,    1,   -1,    2,
+                  3,    5,    8,    4,   -5,   -6,   -8,  -11,
+                 -4,    0,   -5,   -1,   -7,  -12,   -8,  -16,
+                 -6,   -6,    0,    2,   -9,   -9,  -11,   -3,
+                 -9,    2,    3,   -1,   -5,  -13,    4,  -20,
+            },
+            {
+                 -9,   22,   22,   27,   27,   19,   10,   20,
+                -17,   20,   32,   41,   58,   25,   30,    0,
+                -20,    6,    9,   49,   47,   35,   19,    9,
+                  3,   22,   24,   45,   57,   40,   57,   36,
+                -18,   28,   19,   47,   31,   34,   39,   23,
+                -16,  -27,   15,    6,    9,   17,   10,    5,
+                -22,  -23,  -30,  -16,  -16,  -23,  -36,  -32,
+                -33,  -28,  -22,  -43,   -5,  -32,  -20,  -41,
+            },
+            {
+                -74,  -35,  -18,  -18,  -11,   15,    4,  -17,
+                -12,   17,   14,   17,   17,   38,   23,   11,
+                 10,   17,   23,   15,   20,   45,   44,   13,
+                 -8,   22,   24,   27,   26,   33,   26,    3,
+                -18,   -4,   21,   24,   27,   23,    9,  -11,
+                -19,   -3,   11,   21,   23,   16,    7,   -9,
+                -27,  -11,    4,   13,   14,    4,   -5,  -17,
+                -53,  -34,  -21,  -11,  -28,  -14,  -24,  -43,
+            },
+        },
+    };
+
+    /**
+     * The tables new boards evaluate with.
+     */
+    private static final Evaluation DEFAULT;
+
+    static {
+        String file = System.getProperty(TABLES_PROPERTY);
+        try {
+            DEFAULT = file == null
+                    ? new Evaluation(PESTO_MIDGAME_VALUES, PESTO_ENDGAME_VALUES, PESTO_SQUARES)
+                    : load(Paths.get(file));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read piece-square tables from " + file + ".", e);
+        }
+    }
+
+    /**
+     * Material values of the piece types in the midgame
+     * and in the endgame.
+     */
+    private final int[] _midgameValues, _endgameValues;
+
+    /**
+     * Square bonuses of white pieces, indexed by phase,
+     * type and square as seen from white.
+     */
+    private final int[][][] _squares;
+
+    /**
+     * Midgame and endgame scores of each piece on each
+     * square, indexed by color, type and square index.
+     */
+    private final int[] _midgame = new int[2 * NUM_TYPES * NUM_SQUARES],
+            _endgame = new int[2 * NUM_TYPES * NUM_SQUARES];
+}
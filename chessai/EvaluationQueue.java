@@ -0,0 +1,232 @@
+package chessai;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Gathers the leaf positions of MCTS worker threads into
+ * batches for an Evaluator. A thread that adds a position
+ * parks until its batch has been evaluated. The thread that
+ * fills a batch evaluates it, outside the lock, while the
+ * next batch fills up; if a batch is not full by the time
+ * the first thread waiting on it times out, that thread
+ * evaluates it as it is. Batches are reused once every
+ * thread has read its result, so no garbage is made.
+ *
+ * @author Richard Hu
+ */
+final class EvaluationQueue {
+
+    /**
+     * Creates a queue of batches of at most BATCHSIZE
+     * positions for EVALUATOR.
+     *
+     * @param evaluator Evaluator of the batches.
+     * @param batchSize Number of positions of a full batch.
+     * @param timeout Longest wait for a batch to fill, in microseconds.
+     */
+    EvaluationQueue(Evaluator evaluator, int batchSize, long timeout) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive.");
+        }
+        _evaluator = evaluator;
+        _batchSize = batchSize;
+        _timeout = TimeUnit.MICROSECONDS.toNanos(timeout);
+        _filling = new Batch(batchSize);
+    }
+
+    /**
+     * Returns the number of positions of a full batch.
+     *
+     * @return Batch size.
+     */
+    int batchSize() {
+        return _batchSize;
+    }
+
+    /**
+     * Adds the position on BOARD to the current batch and
+     * waits for it to be evaluated. BOARD, MOVES and PRIORS
+     * are used by whichever thread evaluates the batch, so
+     * they must not be changed while waiting.
+     *
+     * @param board Position to evaluate.
+     * @param moves Legal moves to find priors for.
+     * @param count Number of moves.
+     * @param priors Array to put the priors of MOVES in.
+     * @return Value for the color to move, from -1 to 1.
+     */
+    float evaluate(Board board, int[] moves, int count, float[] priors) {
+        Batch batch;
+        int slot;
+        boolean evaluate;
+        _lock.lock();
+        try {
+            batch = _filling;
+            slot = batch.size++;
+            batch.boards[slot] = board;
+            batch.moves[slot] = moves;
+            batch.counts[slot] = count;
+            batch.priors[slot] = priors;
+            long nanos = _timeout;
+            while (batch == _filling && batch.size < _batchSize && nanos > 0) {
+                try {
+                    nanos = _changed.awaitNanos(nanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    nanos = 0;
+                }
+            }
+            evaluate = batch == _filling;
+            if (evaluate) {
+                _filling = _free.isEmpty() ? new Batch(_batchSize) : _free.pop();
+                batch.unread = batch.size;
+                _batches++;
+                _positions += batch.size;
+            }
+        } finally {
+            _lock.unlock();
+        }
+
+        if (evaluate) {
+            try {
+                _evaluator.evaluate(batch.boards, batch.moves, batch.counts, batch.size,
+                        batch.values, batch.priors);
+            } finally {
+                _lock.lock();
+                try {
+                    batch.done = true;
+                    _changed.signalAll();
+                } finally {
+                    _lock.unlock();
+                }
+            }
+        }
+
+        _lock.lock();
+        try {
+            while (!batch.done) {
+                _changed.awaitUninterruptibly();
+            }
+            float value = batch.values[slot];
+            if (--batch.unread == 0) {
+                batch.clear();
+                _free.push(batch);
+            }
+            return value;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the average number of positions of the batches
+     * evaluated so far.
+     *
+     * @return Average batch size, or 0 if there were none.
+     */
+    double averageBatchSize() {
+        _lock.lock();
+        try {
+            return _batches == 0 ? 0 : (double) _positions / _batches;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * Positions of one batch and their results.
+     */
+    private static final class Batch {
+
+        /**
+         * Creates an empty batch of at most SIZE positions.
+         *
+         * @param size Largest number of positions.
+         */
+        Batch(int size) {
+            boards = new Board[size];
+            moves = new int[size][];
+            counts = new int[size];
+            priors = new float[size][];
+            values = new float[size];
+        }
+
+        /**
+         * Empties the batch for reuse.
+         */
+        void clear() {
+            for (int i = 0; i < size; i++) {
+                boards[i] = null;
+                moves[i] = null;
+                priors[i] = null;
+            }
+            size = 0;
+            done = false;
+        }
+
+        /**
+         * Positions of the batch, their moves and number of moves.
+         */
+        final Board[] boards;
+        final int[][] moves;
+        final int[] counts;
+
+        /**
+         * Arrays of the threads' priors, and the values found.
+         */
+        final float[][] priors;
+        final float[] values;
+
+        /**
+         * Number of positions, and of threads yet to read
+         * their results once the batch is taken.
+         */
+        int size, unread;
+
+        /**
+         * Whether the batch has been evaluated.
+         */
+        boolean done;
+    }
+
+    /**
+     * Evaluator of the batches.
+     */
+    private final Evaluator _evaluator;
+
+    /**
+     * Number of positions of a full batch.
+     */
+    private final int _batchSize;
+
+    /**
+     * Longest wait for a batch to fill, in nanoseconds.
+     */
+    private final long _timeout;
+
+    /**
+     * Guards the batches. Signalled when a batch fills up
+     * or has been evaluated.
+     */
+    private final ReentrantLock _lock = new ReentrantLock();
+    private final Condition _changed = _lock.newCondition();
+
+    /**
+     * Batch that positions are being added to.
+     */
+    private Batch _filling;
+
+    /**
+     * Evaluated batches whose results have all been read.
+     */
+    private final ArrayDeque<Batch> _free = new ArrayDeque<>();
+
+    /**
+     * Number of batches taken for evaluation, and of
+     * positions in them.
+     */
+    private long _batches, _positions;
+}
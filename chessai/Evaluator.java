@@ -0,0 +1,34 @@
+package chessai;
+
+/**
+ * Evaluator of the leaf positions of a PUCT search in MCTS,
+ * such as a neural network. Positions are handed over in
+ * batches, so that the cost of an evaluation, like that of a
+ * call into vectorized inference, is shared by many leaves.
+ * Batches may be evaluated by several threads at once.
+ *
+ * @author Richard Hu
+ */
+interface Evaluator {
+
+    /**
+     * Evaluates the first SIZE positions of a batch. For each
+     * position I, BOARDS[I] is at the position and the first
+     * COUNTS[I] elements of MOVES[I] are packed legal moves of
+     * the color to move, possibly none if only the value is
+     * needed. Sets VALUES[I] to the expected result for the
+     * color to move, from -1 for a loss to 1 for a win, and
+     * PRIORS[I][J] to the prior probability of MOVES[I][J].
+     * Priors need not add up to 1. The boards must be left
+     * as they were.
+     *
+     * @param boards Positions to evaluate.
+     * @param moves Moves to find priors for, for each position.
+     * @param counts Number of moves of each position.
+     * @param size Number of positions.
+     * @param values Array to put the values in.
+     * @param priors Arrays to put the priors in.
+     */
+    void evaluate(Board[] boards, int[][] moves, int[] counts, int size,
+                  float[] values, float[][] priors);
+}
@@ -0,0 +1,43 @@
+package chessai;
+
+import static chessai.Move.*;
+
+/**
+ * Evaluator built on the static evaluation of Board, for PUCT
+ * searches without a trained policy. The value is the score
+ * of the network, if the board has one, or of the piece-square
+ * tables, mapped to a winning chance by a logistic curve. Priors
+ * favor captures that win material by static exchange
+ * evaluation and promotions over the other moves.
+ *
+ * @author Richard Hu
+ */
+final class HeuristicEvaluator implements Evaluator {
+
+    /**
+     * Score in centipawns at which the winning chance of the
+     * side ahead is 10 times that of the other.
+     */
+    static final double VALUE_SCALE = 400;
+
+    /**
+     * Gain in centipawns that makes a move e times as likely.
+     */
+    static final double PRIOR_SCALE = 150;
+
+    @Override
+    public void evaluate(Board[] boards, int[][] moves, int[] counts, int size,
+                         float[] values, float[][] priors) {
+        for (int i = 0; i < size; i++) {
+            Board board = boards[i];
+            int score = board.network() != null ? board.evaluateNetwork() : board.evaluate();
+            values[i] = (float) (2 / (1 + Math.pow(10, -score / VALUE_SCALE)) - 1);
+            for (int j = 0; j < counts[i]; j++) {
+                int move = moves[i][j];
+                int gain = (isCapture(move) ? Math.max(0, board.see(move)) : 0)
+                        + (getPromotion(move) >= 0 ? AlphaBeta.PIECE_VALUES[getPromotion(move)] : 0);
+                priors[i][j] = (float) Math.exp(gain / PRIOR_SCALE);
+            }
+        }
+    }
+}
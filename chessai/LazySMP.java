@@ -0,0 +1,157 @@
+package chessai;
+
+import java.io.PrintStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lazy SMP: parallel alpha-beta search in which every thread
+ * runs its own AlphaBeta search of the same root on its own
+ * copy of the board. The threads never talk to each other
+ * directly; they only share one lock-free TranspositionTable,
+ * so results found by one thread cut off and reorder the
+ * searches of the others. Helper threads search odd depths
+ * one ply deeper to spread the work, and the result of the
+ * main thread, which alone honours the limits, is the result
+ * of the search. The helpers run on a fixed pool of daemon
+ * threads kept for the life of the searcher, so a search
+ * only hands each one a copy of the board.
+ *
+ * @author Richard Hu
+ */
+public class LazySMP implements AutoCloseable {
+
+    /**
+     * Creates a searcher with THREADS threads sharing TABLE.
+     * The limits are those of AlphaBeta and apply to the main
+     * thread; helpers search until it finishes.
+     *
+     * @param threads Number of threads, including the main thread.
+     * @param table Transposition table shared by all threads.
+     * @param timeLimit Maximum time per search in milliseconds.
+     * @param nodeLimit Maximum nodes of the main thread per search.
+     * @param depthLimit Maximum depth per search.
+     */
+    LazySMP(int threads, TranspositionTable table, long timeLimit, long nodeLimit, int depthLimit) {
+        _table = table;
+        _main = new AlphaBeta(table, timeLimit, nodeLimit, depthLimit);
+        _main.shareTable();
+        _helpers = new AlphaBeta[Math.max(1, threads) - 1];
+        for (int i = 0; i < _helpers.length; i++) {
+            _helpers[i] = new AlphaBeta(table, 0, 0, AlphaBeta.MAX_PLY);
+            _helpers[i].shareTable();
+        }
+        AtomicInteger started = new AtomicInteger();
+        _pool = _helpers.length == 0 ? null : Executors.newFixedThreadPool(_helpers.length, task -> {
+            Thread thread = new Thread(task, "smp-" + started.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Prints the main thread's iterations to OUT.
+     *
+     * @param out Stream to print to, or null for none.
+     */
+    void setOutput(PrintStream out) {
+        _main.setOutput(out);
+    }
+
+    /**
+     * Searches the position on BOARD with all threads,
+     * aging the table once before any of them starts.
+     *
+     * @param board Board to search. Left unchanged.
+     * @return Best move as a packed move, or 0 if the
+     * side to move has none.
+     */
+    int search(Board board) {
+        _table.newSearch();
+        AtomicBoolean stop = new AtomicBoolean();
+        Future<?>[] workers = new Future<?>[_helpers.length];
+        for (int i = 0; i < workers.length; i++) {
+            AlphaBeta helper = _helpers[i];
+            Board copy = board.copy();
+            helper.setHelper(stop, i % 2 == 0 ? 1 : 0);
+            workers[i] = _pool.submit(() -> helper.search(copy));
+        }
+
+        int move;
+        try {
+            move = _main.search(board);
+        } finally {
+            stop.set(true);
+            for (Future<?> worker : workers) {
+                try {
+                    worker.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while searching.", e);
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Helper search failed.", e);
+                }
+            }
+        }
+        return move;
+    }
+
+    /**
+     * Stops the helper threads once they are idle. The
+     * searcher cannot search with helpers afterwards.
+     */
+    @Override
+    public void close() {
+        if (_pool != null) {
+            _pool.shutdown();
+        }
+    }
+
+    /**
+     * Returns the main thread's searcher, which holds the
+     * score, depth and principal variation of the last search.
+     *
+     * @return _main.
+     */
+    AlphaBeta main() {
+        return _main;
+    }
+
+    /**
+     * Returns the number of nodes searched by all threads
+     * in the last search.
+     *
+     * @return Total nodes.
+     */
+    long nodes() {
+        long nodes = _main.nodes();
+        for (AlphaBeta helper : _helpers) {
+            nodes += helper.nodes();
+        }
+        return nodes;
+    }
+
+    /**
+     * Transposition table shared by all threads.
+     */
+    private final TranspositionTable _table;
+
+    /**
+     * Searcher of the main thread.
+     */
+    private final AlphaBeta _main;
+
+    /**
+     * Searchers of the helper threads.
+     */
+    private final AlphaBeta[] _helpers;
+
+    /**
+     * Threads running the helpers, or null if there are none.
+     */
+    private final ExecutorService _pool;
+}
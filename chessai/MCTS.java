@@ -0,0 +1,792 @@
+package chessai;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static chessai.Board.*;
+import static chessai.Bitboards.*;
+import static chessai.Color.*;
+import static chessai.Move.*;
+
+/**
+ * Multithreaded Monte Carlo tree search. Every worker thread
+ * plays out games on its own Board but shares a single search
+ * tree, kept in a NodePool of primitive arrays. Nodes hold
+ * atomic visit and value counters, so threads never lock while
+ * selecting or backpropagating, and a virtual loss added along
+ * the path being searched steers concurrent threads towards
+ * different lines. The tree is kept between searches, so that
+ * when the next search is of a position one or two moves on,
+ * such as after our move and the opponent's reply, the subtree
+ * of that position and its playouts are reused.
+ *
+ * By default children are selected by UCT and leaves valued
+ * by random playouts. With an Evaluator, the search switches
+ * to PUCT: each leaf is valued by the evaluator, which also
+ * gives priors for its moves that steer selection. Leaves are
+ * evaluated in batches gathered from all worker threads by an
+ * EvaluationQueue, so there should be a thread for every
+ * position of a batch.
+ *
+ * In either mode the search is also an MCTS-Solver: nodes whose
+ * game is over are proven won or drawn, and proofs are passed up
+ * the tree, a node being lost if any of its children is won and
+ * won if all of them are lost. Selection skips lost children and
+ * goes straight to won ones, and the search ends as soon as the
+ * root is proven.
+ *
+ * @author Richard Hu
+ */
+public class MCTS {
+
+    /**
+     * Exploration constant of the UCT formula.
+     */
+    static final double EXPLORATION = Math.sqrt(2);
+
+    /**
+     * Number of lost visits temporarily added to a node
+     * while a thread is searching below it.
+     */
+    static final int VIRTUAL_LOSS = 3;
+
+    /**
+     * Exploration constant of the PUCT formula.
+     */
+    static final double PUCT_EXPLORATION = 1.5;
+
+    /**
+     * Longest wait in microseconds for a batch of leaves
+     * to fill before it is evaluated as it is.
+     */
+    static final long BATCH_TIMEOUT = 1000;
+
+    /**
+     * Number of plies after which a random playout is
+     * scored as a draw.
+     */
+    static final int MAX_ROLLOUT_PLIES = 200;
+
+    /**
+     * Number of plies after which a light playout is
+     * scored as a draw.
+     */
+    static final int LIGHT_ROLLOUT_PLIES = 100;
+
+    /**
+     * Material gained in centipawns since the start of a light
+     * playout, measured after a move that captures nothing,
+     * with which it is scored as a win. Measuring the gain
+     * rather than the lead keeps playouts from a position one
+     * side already leads apart.
+     */
+    static final int ROLLOUT_MARGIN = 500;
+
+    /**
+     * Default size of the node pool in megabytes.
+     */
+    static final int DEFAULT_MEGABYTES = 64;
+
+    /**
+     * Longest path from the root that a playout follows
+     * through the tree.
+     */
+    static final int MAX_TREE_DEPTH = 512;
+
+    /**
+     * Creates a searcher with a node pool of the default size.
+     * A search stops when either limit is reached; a limit of 0
+     * means no limit, but at least one must be set.
+     *
+     * @param threads Number of worker threads.
+     * @param timeLimit Maximum time per search in milliseconds.
+     * @param playoutLimit Maximum playouts per search.
+     */
+    MCTS(int threads, long timeLimit, long playoutLimit) {
+        this(threads, timeLimit, playoutLimit, DEFAULT_MEGABYTES);
+    }
+
+    /**
+     * Creates a searcher whose tree takes at most MEGABYTES
+     * megabytes. Once the pool is full, playouts go on from
+     * the leaves of the tree without growing it.
+     *
+     * @param threads Number of worker threads.
+     * @param timeLimit Maximum time per search in milliseconds.
+     * @param playoutLimit Maximum playouts per search.
+     * @param megabytes Size of the node pool.
+     */
+    MCTS(int threads, long timeLimit, long playoutLimit, int megabytes) {
+        if (timeLimit <= 0 && playoutLimit <= 0) {
+            throw new IllegalArgumentException("A time or playout limit is required.");
+        }
+        _threads = Math.max(1, threads);
+        _timeLimit = timeLimit;
+        _playoutLimit = playoutLimit;
+        _pool = new NodePool(megabytes);
+    }
+
+    /**
+     * Searches the position on BOARD and returns a move
+     * proven to win, if any, or else the move with the most
+     * visits among those not proven to lose. Pawn moves to
+     * the last row are searched and returned as queen
+     * promotions. If the position is that of the last search,
+     * or one or two moves on from it, the matching subtree of
+     * the last search becomes the new tree and the rest of it
+     * is freed. The root is expanded before the workers start,
+     * so that a move is found even if the budget runs out
+     * before their first playout.
+     *
+     * @param board Board to search. Left unchanged.
+     * @return Best move, or null if the game is over.
+     */
+    Move bestMove(Board board) {
+        int root = _lastRoot == null ? -1 : findRoot(board);
+        if (root < 0) {
+            _pool.reset();
+        } else {
+            _pool.compact(root);
+        }
+        _reused = _pool.visits(0);
+        _lastRoot = board.copy();
+        _rootTurn = board.turn();
+        _playouts.set(0);
+        _deadline = _timeLimit > 0 ? System.nanoTime() + _timeLimit * 1_000_000 : Long.MAX_VALUE;
+        boolean over = board.outcome() != GAME_ONGOING;
+        if (!over && _pool.firstChild(0) == 0) {
+            Board copy = board.copy();
+            int[] moves = new int[MAX_MOVES];
+            if (_queue != null) {
+                evaluate(0, 0, copy, moves, new float[MAX_MOVES]);
+            } else {
+                expand(0, copy, moves);
+            }
+        }
+
+        Thread[] workers = new Thread[_threads];
+        for (int i = 0; i < workers.length; i++) {
+            Board copy = board.copy();
+            workers[i] = new Thread(() -> {
+                Random random = ThreadLocalRandom.current();
+                int[] moves = new int[MAX_MOVES];
+                float[] priors = new float[MAX_MOVES];
+                int[] path = new int[MAX_TREE_DEPTH + 1];
+                while (!finished()) {
+                    playout(copy, random, moves, priors, path);
+                    _playouts.incrementAndGet();
+                }
+            }, "mcts-" + i);
+            workers[i].start();
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while searching.", e);
+            }
+        }
+
+        int first = _pool.firstChild(0);
+        if (over) {
+            return null;
+        } else if (first <= 0) {
+            int[] moves = new int[MAX_MOVES];
+            _lastRoot.legalMoves(moves);
+            return toMove(moves[0]);
+        }
+        int best = first;
+        for (int child = first; child < first + _pool.childCount(0); child++) {
+            boolean lost = _pool.proof(child) == NodePool.PROVEN_LOSS,
+                    bestLost = _pool.proof(best) == NodePool.PROVEN_LOSS;
+            if (_pool.proof(child) == NodePool.PROVEN_WIN) {
+                best = child;
+                break;
+            }
+            if (bestLost && !lost || lost == bestLost && _pool.visits(child) > _pool.visits(best)) {
+                best = child;
+            }
+        }
+        return toMove(_pool.move(best));
+    }
+
+    /**
+     * Returns the proof of the root of the last search:
+     * whether the color to move wins, loses or draws with
+     * best play, if the search has found out.
+     *
+     * @return NodePool.PROVEN_WIN, PROVEN_LOSS, PROVEN_DRAW
+     * or UNPROVEN.
+     */
+    byte rootProof() {
+        byte proof = _pool.proof(0);
+        return proof == NodePool.PROVEN_WIN ? NodePool.PROVEN_LOSS
+                : proof == NodePool.PROVEN_LOSS ? NodePool.PROVEN_WIN : proof;
+    }
+
+    /**
+     * Returns the number of playouts made by the last search.
+     *
+     * @return Number of playouts.
+     */
+    long playouts() {
+        return _playouts.get();
+    }
+
+    /**
+     * Returns the number of playouts of earlier searches that
+     * the last search started with.
+     *
+     * @return Number of playouts reused.
+     */
+    long reused() {
+        return _reused;
+    }
+
+    /**
+     * Chooses between light playouts, the default, which pick
+     * moves with Board.randomMove() and stop early once one side
+     * has gained ROLLOUT_MARGIN in material, and full playouts,
+     * which pick uniformly from the legal moves and go on until
+     * the game ends or MAX_ROLLOUT_PLIES.
+     *
+     * @param light TRUE for light playouts.
+     */
+    void setLightRollouts(boolean light) {
+        _lightRollouts = light;
+    }
+
+    /**
+     * Switches to PUCT with leaves valued by EVALUATOR, in
+     * batches of BATCHSIZE positions, or back to UCT and
+     * playouts if EVALUATOR is null. The tree is dropped.
+     *
+     * @param evaluator Evaluator of the leaves, or null.
+     * @param batchSize Number of positions evaluated together.
+     */
+    void setEvaluator(Evaluator evaluator, int batchSize) {
+        _queue = evaluator == null ? null : new EvaluationQueue(evaluator, batchSize, BATCH_TIMEOUT);
+        clear();
+    }
+
+    /**
+     * Drops the tree kept from the last search, as when
+     * starting a new game.
+     */
+    void clear() {
+        _lastRoot = null;
+        _pool.reset();
+    }
+
+    /**
+     * Returns the number of nodes in the tree of the last
+     * search, including the root.
+     *
+     * @return Number of nodes.
+     */
+    int nodes() {
+        return _pool.size();
+    }
+
+    /**
+     * Finds the node of the last search's tree whose position
+     * is the one on BOARD: the root, a child or a grandchild.
+     *
+     * @param board Board to find.
+     * @return Index of the node, or -1 if there is none.
+     */
+    private int findRoot(Board board) {
+        long hash = board.hash();
+        if (_lastRoot.hash() == hash) {
+            return 0;
+        }
+        int first = _pool.firstChild(0);
+        for (int child = first; first > 0 && child < first + _pool.childCount(0); child++) {
+            _lastRoot.makeMove(_pool.move(child));
+            int found = _lastRoot.hash() == hash ? child : -1;
+            int grandchild = _pool.firstChild(child);
+            for (int g = grandchild; found < 0 && grandchild > 0
+                    && g < grandchild + _pool.childCount(child); g++) {
+                _lastRoot.makeMove(_pool.move(g));
+                if (_lastRoot.hash() == hash) {
+                    found = g;
+                }
+                _lastRoot.undo();
+            }
+            _lastRoot.undo();
+            if (found >= 0) {
+                return found;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * TRUE iff the current search has used up its budget.
+     *
+     * @return Whether to stop searching.
+     */
+    private boolean finished() {
+        return (_playoutLimit > 0 && _playouts.get() >= _playoutLimit)
+                || System.nanoTime() >= _deadline
+                || _pool.proof(0) != NodePool.UNPROVEN;
+    }
+
+    /**
+     * Runs one iteration of the search: selects a path
+     * from the root, expands its leaf, values it by playing
+     * a random game from there or with the evaluator, and
+     * backpropagates the result. A path ending at a proven
+     * node takes its proven value instead, as does a leaf
+     * whose game is over, which is proven. BOARD is returned
+     * to the root position afterwards.
+     *
+     * @param board This thread's board, at the root position.
+     * @param random Source of randomness for the rollout.
+     * @param moves This thread's move array.
+     * @param priors This thread's array of move priors.
+     * @param path This thread's array of the nodes selected,
+     *             indexed by depth.
+     */
+    private void playout(Board board, Random random, int[] moves, float[] priors, int[] path) {
+        boolean puct = _queue != null;
+        int node = 0, depth = 0;
+        path[0] = 0;
+
+        for (int first = _pool.firstChild(node); first > 0 && depth < MAX_TREE_DEPTH
+                && _pool.proof(node) == NodePool.UNPROVEN; first = _pool.firstChild(node)) {
+            node = puct ? selectPuct(node, first) : select(node, first);
+            _pool.addVirtualLoss(node, VIRTUAL_LOSS);
+            board.makeMove(_pool.move(node));
+            path[++depth] = node;
+        }
+        if (_pool.proof(node) != NodePool.UNPROVEN) {
+            backpropagate(board, path, depth, provenValue(node, depth));
+            return;
+        }
+
+        char outcome = board.outcome();
+        if (puct) {
+            if (outcome != GAME_ONGOING) {
+                _pool.prove(node, outcome == DRAW ? NodePool.PROVEN_DRAW : NodePool.PROVEN_WIN);
+            }
+            backpropagate(board, path, depth, outcome == GAME_ONGOING
+                    ? evaluate(node, depth, board, moves, priors) : whiteValue(outcome));
+            return;
+        }
+        if (outcome == GAME_ONGOING && depth < MAX_TREE_DEPTH
+                && (node == 0 || _pool.visits(node) > 0) && expand(node, board, moves)) {
+            node = select(node, _pool.firstChild(node));
+            _pool.addVirtualLoss(node, VIRTUAL_LOSS);
+            board.makeMove(_pool.move(node));
+            path[++depth] = node;
+            outcome = board.outcome();
+        }
+        if (outcome == GAME_ONGOING) {
+            outcome = _lightRollouts ? lightRollout(board, random, moves)
+                    : rollout(board, random, moves);
+        } else {
+            _pool.prove(node, outcome == DRAW ? NodePool.PROVEN_DRAW : NodePool.PROVEN_WIN);
+        }
+        backpropagate(board, path, depth, whiteValue(outcome));
+    }
+
+    /**
+     * Adds a visit worth VALUE for white to the nodes of PATH,
+     * taking back their moves and virtual losses. If the last
+     * node is proven, its ancestors are solved in turn for as
+     * long as that proves them too.
+     *
+     * @param board This thread's board, at the last node of PATH.
+     * @param path Nodes selected, indexed by depth.
+     * @param depth Depth of the last node.
+     * @param value Value for white, from 0 to NodePool.WIN.
+     */
+    private void backpropagate(Board board, int[] path, int depth, int value) {
+        boolean solved = _pool.proof(path[depth]) != NodePool.UNPROVEN;
+        for (int d = depth; d > 0; d--) {
+            _pool.update(path[d], mover(d) == WHITE ? value : NodePool.WIN - value);
+            _pool.addVirtualLoss(path[d], -VIRTUAL_LOSS);
+            board.undo();
+            solved = solved && solve(path[d - 1], board);
+        }
+        _pool.update(0, 0);
+    }
+
+    /**
+     * Proves NODE from the proofs of its children, if they
+     * are enough: it is lost for the color that made its move
+     * if any child is won, since the other color can choose
+     * that child; won if every child is lost; and drawn if
+     * every child is proven and none of them won. Pawns are
+     * only searched promoting to a queen, so when the color
+     * to move has a pawn about to promote, an underpromotion
+     * left out of the children might do better than all of
+     * them, and only a won child proves NODE.
+     *
+     * @param node Node to solve.
+     * @param board Board at NODE's position.
+     * @return TRUE iff NODE is proven.
+     */
+    private boolean solve(int node, Board board) {
+        if (_pool.proof(node) != NodePool.UNPROVEN) {
+            return true;
+        }
+        int first = _pool.firstChild(node);
+        if (first <= 0) {
+            return false;
+        }
+        boolean unproven = false, drawn = false;
+        for (int child = first; child < first + _pool.childCount(node); child++) {
+            byte proof = _pool.proof(child);
+            if (proof == NodePool.PROVEN_WIN) {
+                _pool.prove(node, NodePool.PROVEN_LOSS);
+                return true;
+            }
+            unproven |= proof == NodePool.UNPROVEN;
+            drawn |= proof == NodePool.PROVEN_DRAW;
+        }
+        if (unproven || mayPromote(board)) {
+            return false;
+        }
+        _pool.prove(node, drawn ? NodePool.PROVEN_DRAW : NodePool.PROVEN_WIN);
+        return true;
+    }
+
+    /**
+     * TRUE iff the color to move on BOARD has a pawn one
+     * row from promoting.
+     *
+     * @param board Board to look at.
+     * @return Whether BOARD may have underpromotions.
+     */
+    private static boolean mayPromote(Board board) {
+        Color turn = board.turn();
+        long seventh = turn == WHITE ? RANK_8 >>> BOARD_SIZE : RANK_1 << BOARD_SIZE;
+        return (board.pieces(turn, Piece.PAWN) & seventh) != 0;
+    }
+
+    /**
+     * Returns the value for white of the proven node NODE.
+     *
+     * @param node Proven node.
+     * @param depth Depth of NODE.
+     * @return Value for white, from 0 to NodePool.WIN.
+     */
+    private int provenValue(int node, int depth) {
+        byte proof = _pool.proof(node);
+        int value = proof == NodePool.PROVEN_WIN ? NodePool.WIN
+                : proof == NodePool.PROVEN_LOSS ? 0 : NodePool.WIN / 2;
+        return mover(depth) == WHITE ? value : NodePool.WIN - value;
+    }
+
+    /**
+     * Returns the color that made the move of the nodes at
+     * DEPTH, counted from the root.
+     *
+     * @param depth Depth, at least 1.
+     * @return Color that moved.
+     */
+    private Color mover(int depth) {
+        return depth % 2 == 1 ? _rootTurn : _rootTurn.opposite();
+    }
+
+    /**
+     * Returns the value for white of a game ending in OUTCOME.
+     *
+     * @param outcome Outcome, as in Board.outcome().
+     * @return NodePool.WIN, half of it or 0.
+     */
+    private static int whiteValue(char outcome) {
+        return outcome == DRAW ? NodePool.WIN / 2 : outcome == WHITE.abbr() ? NodePool.WIN : 0;
+    }
+
+    /**
+     * Values the leaf NODE with the evaluator and, unless
+     * another thread claimed it first or it is at the depth
+     * limit, expands it with the priors found, normalized.
+     *
+     * @param node Leaf reached.
+     * @param depth Depth of NODE.
+     * @param board Board at NODE's position, with moves left.
+     * @param moves Array to generate moves into.
+     * @param priors Array for the priors of the moves.
+     * @return Value for white, from 0 to NodePool.WIN.
+     */
+    private int evaluate(int node, int depth, Board board, int[] moves, float[] priors) {
+        boolean claimed = depth < MAX_TREE_DEPTH && _pool.claim(node);
+        int count = claimed ? children(board, moves) : 0;
+        float value = _queue.evaluate(board, moves, count, priors);
+        if (claimed) {
+            float sum = 0;
+            for (int i = 0; i < count; i++) {
+                priors[i] = Math.max(0, priors[i]);
+                sum += priors[i];
+            }
+            for (int i = 0; i < count; i++) {
+                priors[i] = sum > 0 ? priors[i] / sum : 1f / count;
+            }
+            addChildren(node, moves, count, priors);
+        }
+        value = Math.max(-1, Math.min(1, board.turn() == WHITE ? value : -value));
+        return Math.round((1 + value) / 2 * NodePool.WIN);
+    }
+
+    /**
+     * Returns the child of NODE with the highest UCT score,
+     * counting virtual losses as visits with no value.
+     * A proven won child is chosen at once, proven lost
+     * ones are skipped, and unvisited children come next.
+     *
+     * @param node Expanded node.
+     * @param first Its first child.
+     * @return Selected child.
+     */
+    private int select(int node, int first) {
+        double logVisits = Math.log(Math.max(1, _pool.visits(node) + _pool.virtualLoss(node)));
+        int best = first;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int child = first; child < first + _pool.childCount(node); child++) {
+            byte proof = _pool.proof(child);
+            if (proof == NodePool.PROVEN_WIN) {
+                return child;
+            } else if (proof == NodePool.PROVEN_LOSS) {
+                continue;
+            }
+            int visits = _pool.visits(child) + _pool.virtualLoss(child);
+            if (visits == 0) {
+                return child;
+            }
+            double score = _pool.value(child) / ((double) NodePool.WIN * visits)
+                    + EXPLORATION * Math.sqrt(logVisits / visits);
+            if (score > bestScore) {
+                best = child;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the child of NODE with the highest PUCT score:
+     * its mean value plus its prior times PUCT_EXPLORATION
+     * times the square root of the visits of NODE over one
+     * more than its own visits. Unvisited children are valued
+     * as draws, and virtual losses count as visits with no
+     * value. Proven children are treated as in select().
+     *
+     * @param node Expanded node.
+     * @param first Its first child.
+     * @return Selected child.
+     */
+    private int selectPuct(int node, int first) {
+        double scale = PUCT_EXPLORATION
+                * Math.sqrt(Math.max(1, _pool.visits(node) + _pool.virtualLoss(node)));
+        int best = first;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int child = first; child < first + _pool.childCount(node); child++) {
+            byte proof = _pool.proof(child);
+            if (proof == NodePool.PROVEN_WIN) {
+                return child;
+            } else if (proof == NodePool.PROVEN_LOSS) {
+                continue;
+            }
+            int visits = _pool.visits(child) + _pool.virtualLoss(child);
+            double mean = visits == 0 ? 0.5 : _pool.value(child) / ((double) NodePool.WIN * visits);
+            double score = mean + scale * _pool.prior(child) / (1 + visits);
+            if (score > bestScore) {
+                best = child;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Adds a child to NODE for every legal move on BOARD,
+     * counting the promotions of a pawn move as one. Only
+     * one thread may expand a node; the others go on to play
+     * out from the node itself, as do all threads once the
+     * pool is full.
+     *
+     * @param node Node to expand.
+     * @param board Board at NODE's position, with moves left.
+     * @param moves Array to generate moves into.
+     * @return TRUE iff this thread expanded NODE.
+     */
+    private boolean expand(int node, Board board, int[] moves) {
+        return _pool.claim(node) && addChildren(node, moves, children(board, moves), null);
+    }
+
+    /**
+     * Fills MOVES with the moves of the children of the node
+     * at the position on BOARD: its legal moves, with only the
+     * queen promotion of a pawn move.
+     *
+     * @param board Board at the node's position.
+     * @param moves Array of at least MAX_MOVES moves.
+     * @return Number of children.
+     */
+    private static int children(Board board, int[] moves) {
+        int count = 0;
+        for (int i = 0, n = board.legalMoves(moves); i < n; i++) {
+            int promotion = getPromotion(moves[i]);
+            if (promotion < 0 || promotion == Piece.QUEEN) {
+                moves[count++] = moves[i];
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Creates and publishes the children of NODE, which this
+     * thread has claimed, if the pool has room for them.
+     *
+     * @param node Claimed node.
+     * @param moves Moves of the children.
+     * @param count Number of children.
+     * @param priors Priors of the children, or null for none.
+     * @return TRUE iff the children were created.
+     */
+    private boolean addChildren(int node, int[] moves, int count, float[] priors) {
+        int first = _pool.allocate(count);
+        if (first < 0) {
+            return false;
+        }
+        for (int i = 0; i < count; i++) {
+            _pool.init(first + i, moves[i], priors == null ? 0 : priors[i]);
+        }
+        _pool.publish(node, first, count);
+        return true;
+    }
+
+    /**
+     * Plays random moves on BOARD until the game ends or
+     * MAX_ROLLOUT_PLIES is reached, then takes them back.
+     *
+     * @param board Board to play on.
+     * @param random Source of randomness.
+     * @param moves Array to generate moves into.
+     * @return Outcome of the game, as in Board.outcome().
+     */
+    private char rollout(Board board, Random random, int[] moves) {
+        int plies = 0;
+        char outcome = GAME_ONGOING;
+        while (outcome == GAME_ONGOING && plies < MAX_ROLLOUT_PLIES) {
+            board.makeMove(moves[random.nextInt(board.legalMoves(moves))]);
+            plies++;
+            outcome = board.outcome();
+        }
+        for (; plies > 0; plies--) {
+            board.undo();
+        }
+        return outcome == GAME_ONGOING ? DRAW : outcome;
+    }
+
+    /**
+     * Plays random moves from Board.randomMove() on BOARD until
+     * the game ends, a side has gained ROLLOUT_MARGIN in material
+     * as of a move capturing nothing, so that recaptures are not
+     * cut off, or LIGHT_ROLLOUT_PLIES is reached, then takes them
+     * back. The game only ends when there are no legal moves.
+     *
+     * @param board Board to play on.
+     * @param random Source of randomness.
+     * @param moves Array for Board.randomMove().
+     * @return Outcome of the game, as in Board.outcome().
+     */
+    private char lightRollout(Board board, Random random, int[] moves) {
+        int plies = 0, start = material(board, WHITE) - material(board, BLACK);
+        char outcome = DRAW;
+        while (plies < LIGHT_ROLLOUT_PLIES) {
+            int move = board.randomMove(random, moves);
+            if (move == 0) {
+                Color turn = board.turn();
+                outcome = board.inCheck(turn) ? turn.opposite().abbr() : DRAW;
+                break;
+            }
+            board.makeMove(move);
+            plies++;
+            if (!isCapture(move)) {
+                int gain = material(board, WHITE) - material(board, BLACK) - start;
+                if (Math.abs(gain) >= ROLLOUT_MARGIN) {
+                    outcome = (gain > 0 ? WHITE : BLACK).abbr();
+                    break;
+                }
+            }
+        }
+        for (; plies > 0; plies--) {
+            board.undo();
+        }
+        return outcome;
+    }
+
+    /**
+     * Returns the material of COLOR on BOARD.
+     *
+     * @param board Board to count on.
+     * @param color Color of the pieces.
+     * @return Material in centipawns.
+     */
+    private static int material(Board board, Color color) {
+        int material = 0;
+        for (int type = Piece.PAWN; type < Piece.KING; type++) {
+            material += board.pieceCount(color, type) * AlphaBeta.PIECE_VALUES[type];
+        }
+        return material;
+    }
+
+    /**
+     * Number of worker threads.
+     */
+    private final int _threads;
+
+    /**
+     * Time limit in milliseconds and playout limit, 0 if unlimited.
+     */
+    private final long _timeLimit, _playoutLimit;
+
+    /**
+     * Nodes of the search tree.
+     */
+    private final NodePool _pool;
+
+    /**
+     * Copy of the board at the root of the last search,
+     * or null if there is no tree to reuse.
+     */
+    private Board _lastRoot;
+
+    /**
+     * Visits of the root when the last search started.
+     */
+    private long _reused;
+
+    /**
+     * Color to move at the root of the current search.
+     */
+    private volatile Color _rootTurn;
+
+    /**
+     * Queue of leaves for the evaluator in PUCT mode, or
+     * null for UCT.
+     */
+    private EvaluationQueue _queue;
+
+    /**
+     * Whether playouts are light, as set by setLightRollouts().
+     */
+    private boolean _lightRollouts = true;
+
+    /**
+     * Deadline of the current search, in System.nanoTime() units.
+     */
+    private volatile long _deadline;
+
+    /**
+     * Playouts made by the current search.
+     */
+    private final AtomicLong _playouts = new AtomicLong();
+}
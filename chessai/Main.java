@@ -13,8 +13,8 @@ public class Main {
 
         while (true) {
             System.out.println(b);
-            System.out.println("White pieces: " + b._whitePieces);
-            System.out.println("Black pieces: " + b._blackPieces);
+            System.out.println("White pieces: " + b.getPieces(Color.WHITE));
+            System.out.println("Black pieces: " + b.getPieces(Color.BLACK));
             System.out.println("White king, Black king: " + Arrays.toString(b._kingSquares));
             mv = keyboard.nextLine();
             while (!b.isLegal(mv(mv))) {
@@ -17,6 +17,13 @@ public class Move {
      */
     static final char NO_CAPTURE = '\1';
 
+    /**
+     * Flags of packed moves that are castles or en
+     * passant captures.
+     */
+    static final int CASTLE_FLAG = 1 << 18,
+            EN_PASSANT_FLAG = 1 << 19;
+
     /**
      * Returns the move starting and ending at the specified squares
      * with the given captured piece.
@@ -208,6 +215,137 @@ public class Move {
         return _from + "-" + _to;
     }
 
+    /**
+     * Packs a move into an int, for search code that keeps
+     * moves in primitive arrays. The squares take six bits
+     * each, the captured and promotion types three bits each
+     * (stored plus one, so that 0 means none), followed by
+     * the castle and en passant flags. No move packs to 0.
+     *
+     * @param from Index of starting square.
+     * @param to Index of destination square.
+     * @param captured Type of captured piece, or -1.
+     * @param promotion Type promoted to, or -1.
+     * @param flags CASTLE_FLAG, EN_PASSANT_FLAG or 0.
+     * @return Packed move.
+     */
+    static int encode(int from, int to, int captured, int promotion, int flags) {
+        return from | to << TO_SHIFT | (captured + 1) << CAPTURED_SHIFT
+                | (promotion + 1) << PROMOTION_SHIFT | flags;
+    }
+
+    /**
+     * Gets the starting square of a packed move.
+     *
+     * @param move Packed move.
+     * @return Index of starting square.
+     */
+    static int getFrom(int move) {
+        return move & 63;
+    }
+
+    /**
+     * Gets the destination square of a packed move.
+     *
+     * @param move Packed move.
+     * @return Index of destination square.
+     */
+    static int getTo(int move) {
+        return (move >>> TO_SHIFT) & 63;
+    }
+
+    /**
+     * Returns true iff a packed move is a capture,
+     * including en passant.
+     *
+     * @param move Packed move.
+     * @return Whether MOVE is a capture.
+     */
+    static boolean isCapture(int move) {
+        return (move & (7 << CAPTURED_SHIFT)) != 0;
+    }
+
+    /**
+     * Returns the type of the piece a packed move captures.
+     *
+     * @param move Packed move.
+     * @return Type of captured piece, or -1 if none.
+     */
+    static int getCaptured(int move) {
+        return ((move >>> CAPTURED_SHIFT) & 7) - 1;
+    }
+
+    /**
+     * Returns the type a packed move promotes a pawn to.
+     *
+     * @param move Packed move.
+     * @return Type promoted to, or -1 if none.
+     */
+    static int getPromotion(int move) {
+        return ((move >>> PROMOTION_SHIFT) & 7) - 1;
+    }
+
+    /**
+     * TRUE iff a packed move is a castle.
+     *
+     * @param move Packed move.
+     * @return Whether MOVE is a castle.
+     */
+    static boolean isCastle(int move) {
+        return (move & CASTLE_FLAG) != 0;
+    }
+
+    /**
+     * TRUE iff a packed move is an en passant capture.
+     *
+     * @param move Packed move.
+     * @return Whether MOVE is en passant.
+     */
+    static boolean isEnPassant(int move) {
+        return (move & EN_PASSANT_FLAG) != 0;
+    }
+
+    /**
+     * TRUE iff a packed move goes from the second to last
+     * row to the last row of either side.
+     *
+     * @param move Packed move.
+     * @return Whether MOVE could be a promotion.
+     */
+    static boolean isPossiblePromotion(int move) {
+        int from = getFrom(move) >>> 3, to = getTo(move) >>> 3;
+        return (from == 1 && to == 0) || (from == 6 && to == 7);
+    }
+
+    /**
+     * Returns the Move object of a packed move, without its
+     * captured piece, as the move generator produces them.
+     *
+     * @param move Packed move.
+     * @return Equivalent Move.
+     */
+    static Move toMove(int move) {
+        return _moves[getFrom(move)][getTo(move)][0];
+    }
+
+    /**
+     * Formats a packed move like a Move, followed by
+     * the promotion piece if any.
+     *
+     * @param move Packed move.
+     * @return MOVE in String format.
+     */
+    static String toString(int move) {
+        String s = toMove(move).toString();
+        return getPromotion(move) < 0 ? s : s + "=" + Piece.abbr(getPromotion(move));
+    }
+
+    /**
+     * Positions of the destination square, captured type and
+     * promotion type in a packed move.
+     */
+    private static final int TO_SHIFT = 6, CAPTURED_SHIFT = 12, PROMOTION_SHIFT = 15;
+
     /**
      * The set of all possible Moves, indexed by row and column of
      *  start, row and column of destination, and the piece being captured.
@@ -0,0 +1,295 @@
+package chessai;
+
+import static chessai.Move.*;
+import static chessai.Piece.*;
+
+/**
+ * Yields the legal moves of a position one at a time, in the
+ * order a search wants to try them, generating each group of
+ * moves only once the previous group is used up: the move from
+ * the transposition table, captures and queen promotions that
+ * do not lose material by most valuable victim and least
+ * valuable attacker, the two killer moves, the other quiet
+ * moves by history score, and finally the captures that were
+ * put aside as losing by static exchange evaluation, and
+ * underpromotions. A search that cuts off on an early move
+ * never generates the quiet moves at all. In quiescence
+ * search, the losing captures are left out entirely.
+ *
+ * @author Richard Hu
+ */
+class MovePicker {
+
+    /**
+     * Stages of the picker, in the order they are passed.
+     */
+    private static final int TABLE_MOVE = 0,
+            GENERATE_TACTICAL = 1,
+            GOOD_TACTICAL = 2,
+            FIRST_KILLER = 3,
+            SECOND_KILLER = 4,
+            GENERATE_QUIET = 5,
+            QUIET = 6,
+            BAD_TACTICAL = 7,
+            DONE = 8;
+
+    /**
+     * Creates a picker for positions on BOARD that orders
+     * quiet moves by HISTORY.
+     *
+     * @param board Board whose moves are picked.
+     * @param history History scores indexed by
+     *                from * NUM_SQUARES + to, updated by
+     *                the search.
+     */
+    MovePicker(Board board, int[] history) {
+        _board = board;
+        _history = history;
+    }
+
+    /**
+     * Makes this picker pick the moves of positions on BOARD
+     * instead, so that a searcher given a new board keeps its
+     * pickers.
+     *
+     * @param board Board whose moves are picked.
+     */
+    void setBoard(Board board) {
+        _board = board;
+    }
+
+    /**
+     * Starts picking the moves of the current position on
+     * the board. The table move and killers are checked for
+     * legality before they are returned, so they may come
+     * from other positions.
+     *
+     * @param tableMove Move from the transposition table, or 0.
+     * @param killer First killer move, or 0.
+     * @param secondKiller Second killer move, or 0.
+     * @param tacticalOnly TRUE to pick only captures and
+     *                     queen promotions that do not lose
+     *                     material, as in quiescence search.
+     */
+    void init(int tableMove, int killer, int secondKiller, boolean tacticalOnly) {
+        _tableMove = tableMove;
+        _killers[0] = killer;
+        _killers[1] = secondKiller;
+        _tacticalOnly = tacticalOnly;
+        _stage = TABLE_MOVE;
+        _badCount = 0;
+        _picked = 0;
+    }
+
+    /**
+     * Returns the next move, or 0 once all moves have
+     * been returned.
+     *
+     * @return Packed move.
+     */
+    int next() {
+        while (true) {
+            switch (_stage) {
+                case TABLE_MOVE -> {
+                    _stage = GENERATE_TACTICAL;
+                    if (_tableMove != 0 && (!_tacticalOnly || isTactical(_tableMove))
+                            && _board.isLegal(_tableMove)) {
+                        return picked(_tableMove);
+                    }
+                }
+                case GENERATE_TACTICAL -> {
+                    _count = _board.tacticalMoves(_moves);
+                    _index = 0;
+                    for (int i = 0; i < _count; i++) {
+                        _scores[i] = tacticalScore(_moves[i]);
+                    }
+                    _stage = GOOD_TACTICAL;
+                }
+                case GOOD_TACTICAL -> {
+                    while (_index < _count) {
+                        int move = pickBest();
+                        if (move == _tableMove) {
+                            continue;
+                        }
+                        if (isLosing(move)) {
+                            _bad[_badCount++] = move;
+                            continue;
+                        }
+                        return picked(move);
+                    }
+                    _stage = _tacticalOnly ? DONE : FIRST_KILLER;
+                    _index = 0;
+                }
+                case FIRST_KILLER, SECOND_KILLER -> {
+                    int killer = _killers[_stage - FIRST_KILLER];
+                    _stage++;
+                    if (killer != 0 && killer != _tableMove && !isTactical(killer)
+                            && _board.isLegal(killer)) {
+                        return picked(killer);
+                    }
+                }
+                case GENERATE_QUIET -> {
+                    _count = _board.quietMoves(_moves);
+                    _index = 0;
+                    for (int i = 0; i < _count; i++) {
+                        _scores[i] = _history[getFrom(_moves[i]) * Board.NUM_SQUARES
+                                + getTo(_moves[i])];
+                    }
+                    _stage = QUIET;
+                }
+                case QUIET -> {
+                    while (_index < _count) {
+                        int move = pickBest();
+                        if (move != _tableMove && move != _killers[0] && move != _killers[1]) {
+                            return picked(move);
+                        }
+                    }
+                    _stage = BAD_TACTICAL;
+                    _index = 0;
+                }
+                case BAD_TACTICAL -> {
+                    if (_index < _badCount) {
+                        return picked(_bad[_index++]);
+                    }
+                    _stage = DONE;
+                }
+                default -> {
+                    return 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of moves returned by next so far.
+     * Once next has returned 0 without TACTICALONLY, this
+     * is the number of legal moves.
+     *
+     * @return Moves picked.
+     */
+    int picked() {
+        return _picked;
+    }
+
+    /**
+     * Counts MOVE as picked and returns it.
+     *
+     * @param move Packed move.
+     * @return MOVE.
+     */
+    private int picked(int move) {
+        _picked++;
+        return move;
+    }
+
+    /**
+     * Moves the best scored of the remaining generated moves
+     * to _index and returns it, advancing _index.
+     *
+     * @return Packed move.
+     */
+    private int pickBest() {
+        int best = _index;
+        for (int j = _index + 1; j < _count; j++) {
+            if (_scores[j] > _scores[best]) {
+                best = j;
+            }
+        }
+        int move = _moves[best], score = _scores[best];
+        _moves[best] = _moves[_index];
+        _scores[best] = _scores[_index];
+        _moves[_index] = move;
+        _scores[_index] = score;
+        _index++;
+        return move;
+    }
+
+    /**
+     * Scores a capture or promotion by most valuable victim,
+     * then least valuable attacker.
+     *
+     * @param move Packed move.
+     * @return Ordering score.
+     */
+    private int tacticalScore(int move) {
+        int attacker = _board.get(Square.ALL_SQUARES[getFrom(move)]).type();
+        return (isCapture(move) ? 10 * AlphaBeta.PIECE_VALUES[getCaptured(move)] : 0)
+                + (getPromotion(move) >= 0 ? AlphaBeta.PIECE_VALUES[getPromotion(move)] : 0)
+                - attacker;
+    }
+
+    /**
+     * TRUE iff MOVE is an underpromotion, or a capture that
+     * loses material by static exchange evaluation. Taking
+     * a piece worth at least the capturing one never does,
+     * so the exchange is only evaluated for the others.
+     *
+     * @param move Packed move.
+     * @return Whether to try MOVE last.
+     */
+    private boolean isLosing(int move) {
+        int promotion = getPromotion(move);
+        if (promotion >= 0 && promotion != QUEEN) {
+            return true;
+        }
+        int attacker = _board.get(Square.ALL_SQUARES[getFrom(move)]).type();
+        if (isCapture(move) && promotion < 0
+                && Board.SEE_VALUES[getCaptured(move)] >= Board.SEE_VALUES[attacker]) {
+            return false;
+        }
+        return _board.see(move) < 0;
+    }
+
+    /**
+     * TRUE iff MOVE is a capture or a promotion.
+     *
+     * @param move Packed move.
+     * @return Whether MOVE is tactical.
+     */
+    private static boolean isTactical(int move) {
+        return isCapture(move) || getPromotion(move) >= 0;
+    }
+
+    /**
+     * Board whose moves are picked.
+     */
+    private Board _board;
+
+    /**
+     * History scores of quiet moves.
+     */
+    private final int[] _history;
+
+    /**
+     * Moves of the stage being picked from, and their scores.
+     */
+    private final int[] _moves = new int[Board.MAX_MOVES],
+            _scores = new int[Board.MAX_MOVES];
+
+    /**
+     * Captures and underpromotions put aside for the last stage.
+     */
+    private final int[] _bad = new int[Board.MAX_MOVES];
+
+    /**
+     * Killer moves of the position.
+     */
+    private final int[] _killers = new int[2];
+
+    /**
+     * Move from the transposition table, or 0.
+     */
+    private int _tableMove;
+
+    /**
+     * TRUE iff only captures and promotions are picked.
+     */
+    private boolean _tacticalOnly;
+
+    /**
+     * Current stage, number of moves generated for it,
+     * index of the next of them, number of moves in _bad,
+     * and number of moves returned.
+     */
+    private int _stage, _count, _index, _badCount, _picked;
+}
@@ -0,0 +1,356 @@
+package chessai;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import static chessai.Board.*;
+import static chessai.Color.*;
+import static chessai.Piece.*;
+import static chessai.Bitboards.*;
+
+/**
+ * Efficiently updatable neural network evaluation. The input
+ * layer is sparse: from each side's point of view, with the
+ * board flipped for black, there is one input for every square
+ * of its own king, combined with every piece other than a king,
+ * of either color, on every square. Its weights are summed
+ * into an accumulator of HIDDEN int16 values per side, which
+ * Board keeps up-to-date by adding and subtracting the weights
+ * of the pieces placed and removed, and only rebuilds from
+ * scratch for a side whose king has moved.
+ *
+ * The two accumulators, the side to move's first, are clipped
+ * to [0, ACTIVATION_MAX] and fed through two int8 hidden layers
+ * with clipped activations and an int8 output layer. The loops
+ * are plain int arithmetic over arrays, which the JIT compiles
+ * to SIMD instructions.
+ *
+ * Networks are read from a little-endian binary file, mapped
+ * into memory: the MAGIC and VERSION ints, the sizes of the
+ * accumulator and the two hidden layers, then the int16 input
+ * weights by input and the int16 accumulator biases, and for
+ * each later layer its int8 weights by output and int32 biases.
+ * The network named by the chessai.nnue system property, if
+ * any, is used by every new Board.
+ *
+ * @author Richard Hu
+ */
+final class Nnue {
+
+    /**
+     * First int of a network file, "CNUE" in ASCII, and
+     * the version of the format described above.
+     */
+    static final int MAGIC = 0x45554E43, VERSION = 1;
+
+    /**
+     * Number of kinds of pieces that are inputs: each type
+     * but the king, of the same or the other color.
+     */
+    static final int PIECE_KINDS = 2 * (NUM_TYPES - 1);
+
+    /**
+     * Number of inputs from one side's point of view.
+     */
+    static final int FEATURES = NUM_SQUARES * PIECE_KINDS * NUM_SQUARES;
+
+    /**
+     * Upper bound of the clipped activations, the right
+     * shift applied to the sums of the hidden layers, and
+     * the divisor turning the output into centipawns.
+     */
+    static final int ACTIVATION_MAX = 127, WEIGHT_SHIFT = 6, OUTPUT_SCALE = 16;
+
+    /**
+     * System property naming a network file that new
+     * boards evaluate with.
+     */
+    static final String NETWORK_PROPERTY = "chessai.nnue";
+
+    /**
+     * Creates a network from its weights and biases, laid
+     * out as in the file format.
+     *
+     * @param hidden Accumulator size.
+     * @param inputWeights FEATURES * HIDDEN input weights.
+     * @param inputBiases HIDDEN accumulator biases.
+     * @param weights1 Weights of the first hidden layer.
+     * @param biases1 Biases of the first hidden layer.
+     * @param weights2 Weights of the second hidden layer.
+     * @param biases2 Biases of the second hidden layer.
+     * @param outputWeights Weights of the output.
+     * @param outputBias Bias of the output.
+     */
+    Nnue(int hidden, short[] inputWeights, short[] inputBiases,
+         byte[] weights1, int[] biases1, byte[] weights2, int[] biases2,
+         byte[] outputWeights, int outputBias) {
+        if (hidden <= 0 || inputWeights.length != FEATURES * hidden
+                || inputBiases.length != hidden
+                || weights1.length != biases1.length * 2 * hidden
+                || weights2.length != biases2.length * biases1.length
+                || outputWeights.length != biases2.length) {
+            throw new IllegalArgumentException("Layer sizes of the network do not match.");
+        }
+        _hidden = hidden;
+        _inputWeights = inputWeights;
+        _inputBiases = inputBiases;
+        _weights1 = weights1;
+        _biases1 = biases1;
+        _weights2 = weights2;
+        _biases2 = biases2;
+        _outputWeights = outputWeights;
+        _outputBias = outputBias;
+        _input = ThreadLocal.withInitial(() -> new int[2 * hidden]);
+        _hidden1 = ThreadLocal.withInitial(() -> new int[biases1.length]);
+        _hidden2 = ThreadLocal.withInitial(() -> new int[biases2.length]);
+    }
+
+    /**
+     * Reads a network from FILE through a memory mapping.
+     *
+     * @param file Network file.
+     * @return The network.
+     * @throws IOException If FILE cannot be read.
+     */
+    static Nnue load(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            ByteBuffer in = mapped.order(ByteOrder.LITTLE_ENDIAN);
+            if (in.remaining() < 5 * Integer.BYTES || in.getInt() != MAGIC || in.getInt() != VERSION) {
+                throw new IllegalArgumentException(file + " is not a network file.");
+            }
+            int hidden = in.getInt(), size1 = in.getInt(), size2 = in.getInt();
+            if (hidden <= 0 || size1 <= 0 || size2 <= 0) {
+                throw new IllegalArgumentException("Bad layer sizes in " + file + ".");
+            }
+            long expected = 5L * Integer.BYTES + 2L * (FEATURES + 1) * hidden
+                    + (long) size1 * 2 * hidden + 4L * size1
+                    + (long) size2 * size1 + 4L * size2 + size2 + 4;
+            if (in.capacity() != expected) {
+                throw new IllegalArgumentException(file + " should be " + expected + " bytes long.");
+            }
+            short[] inputWeights = new short[FEATURES * hidden], inputBiases = new short[hidden];
+            in.asShortBuffer().get(inputWeights).get(inputBiases);
+            in.position(in.position() + 2 * (inputWeights.length + hidden));
+            byte[] weights1 = new byte[size1 * 2 * hidden];
+            int[] biases1 = new int[size1];
+            in.get(weights1).asIntBuffer().get(biases1);
+            in.position(in.position() + 4 * size1);
+            byte[] weights2 = new byte[size2 * size1];
+            int[] biases2 = new int[size2];
+            in.get(weights2).asIntBuffer().get(biases2);
+            in.position(in.position() + 4 * size2);
+            byte[] outputWeights = new byte[size2];
+            in.get(outputWeights);
+            return new Nnue(hidden, inputWeights, inputBiases, weights1, biases1,
+                    weights2, biases2, outputWeights, in.getInt());
+        }
+    }
+
+    /**
+     * Writes this network to FILE in the format read by load().
+     *
+     * @param file File to write.
+     * @throws IOException If FILE cannot be written.
+     */
+    void save(Path file) throws IOException {
+        int size1 = _biases1.length, size2 = _biases2.length;
+        ByteBuffer out = ByteBuffer.allocate(5 * Integer.BYTES + 2 * (FEATURES + 1) * _hidden
+                + size1 * 2 * _hidden + 4 * size1 + size2 * size1 + 4 * size2 + size2 + 4)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        out.putInt(MAGIC).putInt(VERSION).putInt(_hidden).putInt(size1).putInt(size2);
+        for (short weight : _inputWeights) {
+            out.putShort(weight);
+        }
+        for (short bias : _inputBiases) {
+            out.putShort(bias);
+        }
+        out.put(_weights1);
+        for (int bias : _biases1) {
+            out.putInt(bias);
+        }
+        out.put(_weights2);
+        for (int bias : _biases2) {
+            out.putInt(bias);
+        }
+        out.put(_outputWeights).putInt(_outputBias);
+        out.flip();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+        }
+    }
+
+    /**
+     * Returns the network named by the chessai.nnue system
+     * property, loaded when first asked for.
+     *
+     * @return The network, or null if the property is not set.
+     */
+    static Nnue defaultNetwork() {
+        return DefaultNetwork.NETWORK;
+    }
+
+    /**
+     * Returns the size of one side's accumulator.
+     *
+     * @return Number of int16 values.
+     */
+    int hidden() {
+        return _hidden;
+    }
+
+    /**
+     * Returns the input of a piece other than a king, from
+     * the point of view of the side with index PERSPECTIVE
+     * whose king is on the square with index KINGSQ.
+     *
+     * @param perspective Color.index() of the side.
+     * @param kingSq Index of the square of that side's king.
+     * @param color Color.index() of the piece.
+     * @param type Type of the piece.
+     * @param sq Index of the square of the piece.
+     * @return Index of the input.
+     */
+    static int feature(int perspective, int kingSq, int color, int type, int sq) {
+        int flip = perspective == 0 ? 0 : 56;
+        int kind = 2 * type + (color == perspective ? 0 : 1);
+        return ((kingSq ^ flip) * PIECE_KINDS + kind) * NUM_SQUARES + (sq ^ flip);
+    }
+
+    /**
+     * Adds the weights of input FEATURE to the accumulator
+     * starting at OFFSET in ACCUMULATORS, or subtracts them
+     * if SIGN is -1.
+     *
+     * @param accumulators Array of accumulators.
+     * @param offset Start of the accumulator.
+     * @param feature Index of the input.
+     * @param sign 1 or -1.
+     */
+    void update(short[] accumulators, int offset, int feature, int sign) {
+        int weights = feature * _hidden;
+        for (int i = 0; i < _hidden; i++) {
+            accumulators[offset + i] += sign * _inputWeights[weights + i];
+        }
+    }
+
+    /**
+     * Rebuilds from scratch the accumulator of the side with
+     * index PERSPECTIVE on BOARD, starting at OFFSET.
+     *
+     * @param board Board to read the pieces from.
+     * @param perspective Color.index() of the side.
+     * @param accumulators Array of accumulators.
+     * @param offset Start of the accumulator.
+     */
+    void refresh(Board board, int perspective, short[] accumulators, int offset) {
+        System.arraycopy(_inputBiases, 0, accumulators, offset, _hidden);
+        long king = board.pieces(perspective == 0 ? WHITE : BLACK, KING);
+        int kingSq = king == 0 ? 0 : first(king);
+        for (Color color : Color.values()) {
+            for (int type = PAWN; type < KING; type++) {
+                for (long bb = board.pieces(color, type); bb != 0; bb &= bb - 1) {
+                    update(accumulators, offset, feature(perspective, kingSq, color.index(),
+                            type, first(bb)), 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs the layers after the accumulators.
+     *
+     * @param accumulators Array of accumulators.
+     * @param us Start of the side to move's accumulator.
+     * @param them Start of the other side's accumulator.
+     * @return Score in centipawns for the side to move.
+     */
+    int evaluate(short[] accumulators, int us, int them) {
+        int[] input = _input.get();
+        for (int i = 0; i < _hidden; i++) {
+            input[i] = Math.min(Math.max(accumulators[us + i], 0), ACTIVATION_MAX);
+            input[_hidden + i] = Math.min(Math.max(accumulators[them + i], 0), ACTIVATION_MAX);
+        }
+        int[] hidden1 = _hidden1.get(), hidden2 = _hidden2.get();
+        layer(input, _weights1, _biases1, hidden1);
+        layer(hidden1, _weights2, _biases2, hidden2);
+        int output = _outputBias;
+        for (int i = 0; i < hidden2.length; i++) {
+            output += _outputWeights[i] * hidden2[i];
+        }
+        return output / OUTPUT_SCALE;
+    }
+
+    /**
+     * Computes a hidden layer with clipped activations.
+     *
+     * @param input Activations of the layer below.
+     * @param weights Weights, INPUT.length per output.
+     * @param biases Biases, one per output.
+     * @param output Array to fill with the activations.
+     */
+    private static void layer(int[] input, byte[] weights, int[] biases, int[] output) {
+        int size = input.length;
+        for (int i = 0; i < biases.length; i++) {
+            int sum = biases[i], row = i * size;
+            for (int j = 0; j < size; j++) {
+                sum += weights[row + j] * input[j];
+            }
+            output[i] = Math.min(Math.max(sum >> WEIGHT_SHIFT, 0), ACTIVATION_MAX);
+        }
+    }
+
+    /**
+     * Holder of the default network, loaded on first use.
+     */
+    private static final class DefaultNetwork {
+
+        /**
+         * The network named by NETWORK_PROPERTY, or null.
+         */
+        static final Nnue NETWORK;
+
+        static {
+            String file = System.getProperty(NETWORK_PROPERTY);
+            try {
+                NETWORK = file == null ? null : load(Paths.get(file));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot read network from " + file + ".", e);
+            }
+        }
+    }
+
+    /**
+     * Size of each side's accumulator.
+     */
+    private final int _hidden;
+
+    /**
+     * Input weights, HIDDEN per input, and accumulator biases.
+     */
+    private final short[] _inputWeights, _inputBiases;
+
+    /**
+     * Weights of the two hidden layers and the output,
+     * by output, and their biases.
+     */
+    private final byte[] _weights1, _weights2, _outputWeights;
+    private final int[] _biases1, _biases2;
+    private final int _outputBias;
+
+    /**
+     * Scratch activations of each thread, so that one
+     * network can be shared by the boards of all threads.
+     */
+    private final ThreadLocal<int[]> _input, _hidden1, _hidden2;
+}
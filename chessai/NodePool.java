@@ -0,0 +1,411 @@
+package chessai;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Preallocated storage for the nodes of an MCTS tree. Nodes are
+ * int indices into parallel primitive arrays, one per field, so a
+ * tree of millions of nodes is a handful of arrays allocated once
+ * instead of millions of objects. The children of a node are
+ * allocated together, so a node only records its first child and
+ * how many there are. Node 0 is the root.
+ *
+ * Threads share a pool without locks: counters are updated with
+ * atomic VarHandle operations, and a node's children are claimed
+ * by one thread with a compare-and-set and published with a
+ * release store of its first child. Starting a new search resets
+ * the pool in constant time; nodes are initialized as they are
+ * handed out again. Alternatively, the subtree of one node can
+ * be kept as the new tree, compacted to the front of the pool.
+ *
+ * A node can also be proven to be won, lost or drawn for the
+ * color that made its move, for MCTS-Solver. Proofs are only
+ * ever set once and read without locks.
+ *
+ * @author Richard Hu
+ */
+final class NodePool {
+
+    /**
+     * Bytes taken by one node: the visit count, virtual loss,
+     * first child, child count and move as ints, the value
+     * sum as a long, the prior as a float and the proof as
+     * a byte.
+     */
+    static final int NODE_BYTES = 5 * Integer.BYTES + Long.BYTES + Float.BYTES + Byte.BYTES;
+
+    /**
+     * Proofs of a node: none, or that the color that made
+     * its move wins, loses or draws with best play.
+     */
+    static final byte UNPROVEN = 0, PROVEN_WIN = 1, PROVEN_LOSS = 2, PROVEN_DRAW = 3;
+
+    /**
+     * Value of a visit that ended in a win; a loss is worth
+     * 0 and a draw half a win. Values in between come from
+     * evaluators.
+     */
+    static final int WIN = 1 << 16;
+
+    /**
+     * Value of firstChild() for a node whose children are being
+     * created, or could not be for lack of room, and which is
+     * therefore treated as a leaf.
+     */
+    static final int EXPANDING = -1;
+
+    /**
+     * Largest pool size in megabytes, the most whose
+     * arrays can be indexed by an int.
+     */
+    static final int MAX_MEGABYTES = 32768;
+
+    /**
+     * Creates a pool using at most MEGABYTES megabytes.
+     *
+     * @param megabytes Size of the pool.
+     */
+    NodePool(int megabytes) {
+        if (megabytes < 1 || megabytes > MAX_MEGABYTES) {
+            throw new IllegalArgumentException("Node pool size must be between 1 and "
+                    + MAX_MEGABYTES + " MB.");
+        }
+        int capacity = (int) Math.min(Integer.MAX_VALUE - 8, (long) megabytes * (1 << 20) / NODE_BYTES);
+        _visits = new int[capacity];
+        _virtualLoss = new int[capacity];
+        _firstChild = new int[capacity];
+        _childCount = new int[capacity];
+        _moves = new int[capacity];
+        _values = new long[capacity];
+        _priors = new float[capacity];
+        _proofs = new byte[capacity];
+        reset();
+    }
+
+    /**
+     * Returns the number of nodes the pool can hold.
+     *
+     * @return Capacity.
+     */
+    int capacity() {
+        return _moves.length;
+    }
+
+    /**
+     * Returns the number of nodes in use, including the root.
+     *
+     * @return Nodes allocated.
+     */
+    int size() {
+        return _size;
+    }
+
+    /**
+     * Empties the pool, leaving a fresh root. Must not be
+     * called during a search.
+     */
+    void reset() {
+        init(0, 0);
+        _size = 1;
+    }
+
+    /**
+     * Makes the subtree of NODE the whole tree, with NODE as
+     * its root, and frees every other node. Since children are
+     * always allocated after their parent, the nodes of the
+     * subtree keep their order and slide down over the freed
+     * ones, so no node is overwritten before it has moved and
+     * no extra arrays are needed beyond one mark bit per node.
+     * Nodes left claimed by a full pool become expandable again.
+     * Must not be called during a search.
+     *
+     * @param node Index of the new root.
+     * @return Number of nodes kept.
+     */
+    int compact(int node) {
+        int size = _size;
+        long[] marks = new long[(size + 63) >>> 6];
+        marks[node >>> 6] |= 1L << node;
+        for (int i = node; i < size; i++) {
+            int first = _firstChild[i];
+            if ((marks[i >>> 6] & 1L << i) != 0 && first > 0) {
+                for (int child = first; child < first + _childCount[i]; child++) {
+                    marks[child >>> 6] |= 1L << child;
+                }
+            }
+        }
+        int[] ranks = new int[marks.length];
+        for (int w = 1; w < marks.length; w++) {
+            ranks[w] = ranks[w - 1] + Long.bitCount(marks[w - 1]);
+        }
+
+        int kept = 0;
+        for (int i = node; i < size; i++) {
+            if ((marks[i >>> 6] & 1L << i) == 0) {
+                continue;
+            }
+            int first = _firstChild[i];
+            _visits[kept] = _visits[i];
+            _virtualLoss[kept] = 0;
+            _firstChild[kept] = first > 0 ? rank(marks, ranks, first) : 0;
+            _childCount[kept] = first > 0 ? _childCount[i] : 0;
+            _moves[kept] = _moves[i];
+            _values[kept] = _values[i];
+            _priors[kept] = _priors[i];
+            _proofs[kept] = _proofs[i];
+            kept++;
+        }
+        _moves[0] = 0;
+        _size = kept;
+        return kept;
+    }
+
+    /**
+     * Returns the number of marked nodes before node I.
+     *
+     * @param marks Mark bits, indexed by node.
+     * @param ranks Number of marked nodes before each long of MARKS.
+     * @param i Index of a node.
+     * @return Rank of I.
+     */
+    private static int rank(long[] marks, int[] ranks, int i) {
+        return ranks[i >>> 6] + Long.bitCount(marks[i >>> 6] & ((1L << i) - 1));
+    }
+
+    /**
+     * Allocates COUNT consecutive nodes, which the caller
+     * must initialize before publishing them.
+     *
+     * @param count Number of nodes.
+     * @return Index of the first node, or -1 if the
+     * pool has no room.
+     */
+    int allocate(int count) {
+        while (true) {
+            int first = _size;
+            if (first > capacity() - count) {
+                return -1;
+            }
+            if (SIZE.compareAndSet(this, first, first + count)) {
+                return first;
+            }
+        }
+    }
+
+    /**
+     * Initializes NODE as an unvisited leaf reached by MOVE,
+     * with a prior of 0.
+     *
+     * @param node Index of the node.
+     * @param move Packed move leading to it, or 0 for the root.
+     */
+    void init(int node, int move) {
+        init(node, move, 0);
+    }
+
+    /**
+     * Initializes NODE as an unvisited leaf reached by MOVE
+     * with prior probability PRIOR.
+     *
+     * @param node Index of the node.
+     * @param move Packed move leading to it, or 0 for the root.
+     * @param prior Prior probability of MOVE.
+     */
+    void init(int node, int move, float prior) {
+        _priors[node] = prior;
+        _proofs[node] = UNPROVEN;
+        _visits[node] = 0;
+        _virtualLoss[node] = 0;
+        _firstChild[node] = 0;
+        _childCount[node] = 0;
+        _moves[node] = move;
+        _values[node] = 0;
+    }
+
+    /**
+     * Claims the right to create the children of NODE.
+     *
+     * @param node Index of the node.
+     * @return TRUE iff no other thread claimed it first.
+     */
+    boolean claim(int node) {
+        return (int) INT.getOpaque(_firstChild, node) == 0
+                && INT.compareAndSet(_firstChild, node, 0, EXPANDING);
+    }
+
+    /**
+     * Publishes the children of a node claimed by this thread,
+     * once they have been initialized.
+     *
+     * @param node Index of the node.
+     * @param first Index of the first child.
+     * @param count Number of children.
+     */
+    void publish(int node, int first, int count) {
+        _childCount[node] = count;
+        INT.setRelease(_firstChild, node, first);
+    }
+
+    /**
+     * Returns the first child of NODE; its children, if any,
+     * are the childCount() nodes from there on.
+     *
+     * @param node Index of the node.
+     * @return Index of the first child, 0 if NODE has not
+     * been expanded, or EXPANDING.
+     */
+    int firstChild(int node) {
+        return (int) INT.getAcquire(_firstChild, node);
+    }
+
+    /**
+     * Returns the number of children of NODE. Only valid
+     * after firstChild() has returned a child.
+     *
+     * @param node Index of the node.
+     * @return Number of children.
+     */
+    int childCount(int node) {
+        return _childCount[node];
+    }
+
+    /**
+     * Returns the packed move leading to NODE.
+     *
+     * @param node Index of the node.
+     * @return Packed move, or 0 for the root.
+     */
+    int move(int node) {
+        return _moves[node];
+    }
+
+    /**
+     * Returns the prior probability of the move leading to NODE.
+     *
+     * @param node Index of the node.
+     * @return Prior, or 0 if not set.
+     */
+    float prior(int node) {
+        return _priors[node];
+    }
+
+    /**
+     * Returns the proof of NODE.
+     *
+     * @param node Index of the node.
+     * @return UNPROVEN, PROVEN_WIN, PROVEN_LOSS or PROVEN_DRAW.
+     */
+    byte proof(int node) {
+        return (byte) BYTE.getOpaque(_proofs, node);
+    }
+
+    /**
+     * Records that NODE is proven to be won, lost or drawn.
+     *
+     * @param node Index of the node.
+     * @param proof PROVEN_WIN, PROVEN_LOSS or PROVEN_DRAW.
+     */
+    void prove(int node, byte proof) {
+        BYTE.setOpaque(_proofs, node, proof);
+    }
+
+    /**
+     * Returns the number of completed visits of NODE.
+     *
+     * @param node Index of the node.
+     * @return Visits.
+     */
+    int visits(int node) {
+        return (int) INT.getOpaque(_visits, node);
+    }
+
+    /**
+     * Returns the total value of the visits of NODE, in
+     * units of WIN for the color that made its move.
+     *
+     * @param node Index of the node.
+     * @return Value.
+     */
+    long value(int node) {
+        return (long) LONG.getOpaque(_values, node);
+    }
+
+    /**
+     * Returns the virtual visits added to NODE by threads
+     * searching below it.
+     *
+     * @param node Index of the node.
+     * @return Virtual loss.
+     */
+    int virtualLoss(int node) {
+        return (int) INT.getOpaque(_virtualLoss, node);
+    }
+
+    /**
+     * Adds AMOUNT virtual visits to NODE, or removes
+     * them if AMOUNT is negative.
+     *
+     * @param node Index of the node.
+     * @param amount Virtual visits.
+     */
+    void addVirtualLoss(int node, int amount) {
+        INT.getAndAdd(_virtualLoss, node, amount);
+    }
+
+    /**
+     * Records a visit of NODE worth VALUE.
+     *
+     * @param node Index of the node.
+     * @param value Value from 0 to WIN.
+     */
+    void update(int node, int value) {
+        if (value != 0) {
+            LONG.getAndAdd(_values, node, (long) value);
+        }
+        INT.getAndAdd(_visits, node, 1);
+    }
+
+    /**
+     * Atomic access to the elements of the int, long and byte
+     * arrays, and to _size.
+     */
+    private static final VarHandle INT = MethodHandles.arrayElementVarHandle(int[].class),
+            LONG = MethodHandles.arrayElementVarHandle(long[].class),
+            BYTE = MethodHandles.arrayElementVarHandle(byte[].class),
+            SIZE;
+
+    static {
+        try {
+            SIZE = MethodHandles.lookup().findVarHandle(NodePool.class, "_size", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * Visit count, virtual loss, first child, child count and
+     * packed move of each node.
+     */
+    private final int[] _visits, _virtualLoss, _firstChild, _childCount, _moves;
+
+    /**
+     * Sum of the values of each node's visits in units of WIN.
+     */
+    private final long[] _values;
+
+    /**
+     * Prior probability of the move leading to each node.
+     */
+    private final float[] _priors;
+
+    /**
+     * Proof of each node.
+     */
+    private final byte[] _proofs;
+
+    /**
+     * Number of nodes allocated.
+     */
+    private volatile int _size;
+}
@@ -0,0 +1,345 @@
+package chessai;
+
+import java.util.Arrays;
+
+import static chessai.Board.*;
+import static chessai.Color.*;
+import static chessai.Piece.*;
+import static chessai.Bitboards.*;
+
+/**
+ * Cache of pawn structure evaluations, addressed by the pawn
+ * hash of Board, which covers the pawns alone. Doubled,
+ * isolated, backward and passed pawns are scored once for
+ * each pawn structure and kept with the bitboard of passed
+ * pawns, so the many positions of a search that share a pawn
+ * structure only look it up. The pawn shields in front of
+ * the kings are kept alongside, for the king squares they
+ * were last computed for.
+ *
+ * A table is not thread-safe; each search thread owns its own.
+ *
+ * @author Richard Hu
+ */
+final class PawnTable {
+
+    /**
+     * Midgame and endgame penalties for each pawn beyond the
+     * first on a file, for an isolated pawn, with no pawns
+     * of its color on the files next to it, and for a
+     * backward pawn, which none of those pawns can support
+     * and whose square in front is attacked by an enemy pawn.
+     */
+    static final int DOUBLED_MIDGAME = -10, DOUBLED_ENDGAME = -20,
+            ISOLATED_MIDGAME = -15, ISOLATED_ENDGAME = -10,
+            BACKWARD_MIDGAME = -10, BACKWARD_ENDGAME = -8;
+
+    /**
+     * Midgame and endgame bonuses for a passed pawn, with no
+     * enemy pawns in front of it on its own or the next files,
+     * indexed by the row it is on counted from its own side.
+     */
+    static final int[] PASSED_MIDGAME = {0, 5, 10, 15, 30, 50, 80, 0},
+            PASSED_ENDGAME = {0, 10, 20, 35, 60, 100, 150, 0};
+
+    /**
+     * Midgame bonuses for a pawn on one of the three files
+     * around its king, one or two rows in front of it, and
+     * the penalty for such a file with no pawn in front.
+     */
+    static final int SHIELD_NEAR = 15, SHIELD_FAR = 8, SHIELD_MISSING = -15;
+
+    /**
+     * Bytes taken by one entry.
+     */
+    static final int ENTRY_BYTES = 32;
+
+    /**
+     * Creates a table using at most MEGABYTES megabytes,
+     * rounded down to a power of two.
+     *
+     * @param megabytes Size of the table.
+     */
+    PawnTable(int megabytes) {
+        if (megabytes < 1 || megabytes > 1024) {
+            throw new IllegalArgumentException("Pawn table size must be between 1 and 1024 MB.");
+        }
+        int entries = (int) (Long.highestOneBit(megabytes) * (1L << 20) / ENTRY_BYTES);
+        _keys = new long[entries];
+        _passed = new long[entries];
+        _midgame = new int[entries];
+        _endgame = new int[entries];
+        _shield = new int[entries];
+        _kings = new int[entries];
+        _mask = entries - 1;
+        clear();
+    }
+
+    /**
+     * Returns the number of entries in the table.
+     *
+     * @return Capacity.
+     */
+    int capacity() {
+        return _keys.length;
+    }
+
+    /**
+     * Empties the table and resets its statistics.
+     */
+    void clear() {
+        Arrays.fill(_keys, 0);
+        Arrays.fill(_kings, 0);
+        _probes = _hits = 0;
+        _keys[0] = ~0L;
+    }
+
+    /**
+     * Looks up the pawn structure of BOARD, computing and
+     * storing its entry on a miss, and brings the pawn
+     * shields of the entry up-to-date with the kings.
+     *
+     * @param board Board to look up.
+     * @return Index of the entry, for the accessors below.
+     */
+    int probe(Board board) {
+        long key = board.pawnHash();
+        int i = (int) (key & _mask);
+        _probes++;
+        if (_keys[i] == key) {
+            _hits++;
+        } else {
+            _keys[i] = key;
+            compute(board, i);
+            _kings[i] = 0;
+        }
+        int kings = kingSquare(board, WHITE) | kingSquare(board, BLACK) << 7 | 1 << 14;
+        if (_kings[i] != kings) {
+            _kings[i] = kings;
+            _shield[i] = shield(board, WHITE) - shield(board, BLACK);
+        }
+        return i;
+    }
+
+    /**
+     * Returns the midgame score of an entry for white,
+     * including the pawn shields.
+     *
+     * @param entry Index returned by probe.
+     * @return Midgame score in centipawns.
+     */
+    int midgame(int entry) {
+        return _midgame[entry] + _shield[entry];
+    }
+
+    /**
+     * Returns the endgame score of an entry for white.
+     *
+     * @param entry Index returned by probe.
+     * @return Endgame score in centipawns.
+     */
+    int endgame(int entry) {
+        return _endgame[entry];
+    }
+
+    /**
+     * Returns the passed pawns of both colors of an entry.
+     *
+     * @param entry Index returned by probe.
+     * @return Bitboard of passed pawns.
+     */
+    long passed(int entry) {
+        return _passed[entry];
+    }
+
+    /**
+     * Returns the number of lookups since the table
+     * was created or cleared.
+     *
+     * @return Probes.
+     */
+    long probes() {
+        return _probes;
+    }
+
+    /**
+     * Returns the number of lookups that found their
+     * pawn structure in the table.
+     *
+     * @return Hits.
+     */
+    long hits() {
+        return _hits;
+    }
+
+    /**
+     * Returns the fraction of lookups that hit.
+     *
+     * @return Hit rate from 0 to 1, or 0 if there were none.
+     */
+    double hitRate() {
+        return _probes == 0 ? 0 : (double) _hits / _probes;
+    }
+
+    /**
+     * Scores the pawn structure of BOARD into entry I.
+     *
+     * @param board Board to score.
+     * @param i Index of the entry.
+     */
+    private void compute(Board board, int i) {
+        int midgame = 0, endgame = 0;
+        long passed = 0;
+        for (Color color : Color.values()) {
+            int us = color.index(), sign = color == WHITE ? 1 : -1;
+            long ours = board.pieces(color, PAWN), theirs = board.pieces(color.opposite(), PAWN);
+            for (long bb = ours; bb != 0; bb &= bb - 1) {
+                int sq = first(bb), file = sq & 7;
+                int row = color == WHITE ? sq >>> 3 : BOARD_SIZE - 1 - (sq >>> 3);
+                if ((ours & FILES[file] & FRONT[us][sq]) != 0) {
+                    midgame += sign * DOUBLED_MIDGAME;
+                    endgame += sign * DOUBLED_ENDGAME;
+                }
+                if ((ours & ADJACENT_FILES[file]) == 0) {
+                    midgame += sign * ISOLATED_MIDGAME;
+                    endgame += sign * ISOLATED_ENDGAME;
+                } else if ((ours & ADJACENT_FILES[file] & ~PASSED_SPAN[us][sq]) == 0
+                        && (PAWN_ATTACKS[us][stop(sq, color)] & theirs) != 0) {
+                    midgame += sign * BACKWARD_MIDGAME;
+                    endgame += sign * BACKWARD_ENDGAME;
+                }
+                if ((theirs & PASSED_SPAN[us][sq]) == 0 && (ours & FRONT[us][sq] & FILES[file]) == 0) {
+                    passed |= bit(sq);
+                    midgame += sign * PASSED_MIDGAME[row];
+                    endgame += sign * PASSED_ENDGAME[row];
+                }
+            }
+        }
+        _midgame[i] = midgame;
+        _endgame[i] = endgame;
+        _passed[i] = passed;
+    }
+
+    /**
+     * Scores the pawn shield of the king of COLOR on BOARD.
+     *
+     * @param board Board to score.
+     * @param color Color of the king.
+     * @return Midgame bonus in centipawns for COLOR.
+     */
+    private static int shield(Board board, Color color) {
+        long king = board.pieces(color, KING);
+        if (king == 0) {
+            return 0;
+        }
+        int sq = first(king), us = color.index(), file = sq & 7;
+        long pawns = board.pieces(color, PAWN);
+        int score = 0;
+        for (int f = Math.max(0, file - 1); f <= Math.min(BOARD_SIZE - 1, file + 1); f++) {
+            long front = pawns & FILES[f] & FRONT[us][sq];
+            if (front == 0) {
+                score += SHIELD_MISSING;
+                continue;
+            }
+            int nearest = color == WHITE ? first(front) : 63 - Long.numberOfLeadingZeros(front);
+            int rows = Math.abs((nearest >>> 3) - (sq >>> 3));
+            score += rows == 1 ? SHIELD_NEAR : rows == 2 ? SHIELD_FAR : 0;
+        }
+        return score;
+    }
+
+    /**
+     * Returns the index of the square of the king of COLOR
+     * on BOARD, or 64 if it has none.
+     *
+     * @param board Board to look at.
+     * @param color Color of the king.
+     * @return Square index.
+     */
+    private static int kingSquare(Board board, Color color) {
+        long king = board.pieces(color, KING);
+        return king == 0 ? NUM_SQUARES : first(king);
+    }
+
+    /**
+     * Returns the index of the square in front of a pawn
+     * of COLOR on the square with index SQ.
+     *
+     * @param sq Index of the pawn's square, not on a last row.
+     * @param color Color of the pawn.
+     * @return Index of the square in front.
+     */
+    private static int stop(int sq, Color color) {
+        return color == WHITE ? sq + BOARD_SIZE : sq - BOARD_SIZE;
+    }
+
+    /**
+     * Bitboards of each file, and of the files on either
+     * side of each file.
+     */
+    private static final long[] FILES = new long[BOARD_SIZE],
+            ADJACENT_FILES = new long[BOARD_SIZE];
+
+    /**
+     * All squares on the rows in front of a square, as seen
+     * by a pawn of each color, indexed by Color.index() and
+     * square index; and those of them on the square's own
+     * and the next files, which no enemy pawn may occupy
+     * for a pawn on the square to be passed.
+     */
+    private static final long[][] FRONT = new long[2][NUM_SQUARES],
+            PASSED_SPAN = new long[2][NUM_SQUARES];
+
+    static {
+        for (int file = 0; file < BOARD_SIZE; file++) {
+            FILES[file] = FILE_A << file;
+        }
+        for (int file = 0; file < BOARD_SIZE; file++) {
+            ADJACENT_FILES[file] = (file > 0 ? FILES[file - 1] : 0)
+                    | (file < BOARD_SIZE - 1 ? FILES[file + 1] : 0);
+        }
+        for (int sq = 0; sq < NUM_SQUARES; sq++) {
+            int row = sq >>> 3;
+            FRONT[0][sq] = row == BOARD_SIZE - 1 ? 0 : -1L << ((row + 1) * BOARD_SIZE);
+            FRONT[1][sq] = row == 0 ? 0 : -1L >>> ((BOARD_SIZE - row) * BOARD_SIZE);
+            for (int us = 0; us < 2; us++) {
+                PASSED_SPAN[us][sq] = FRONT[us][sq] & (FILES[sq & 7] | ADJACENT_FILES[sq & 7]);
+            }
+        }
+    }
+
+    /**
+     * Pawn hashes of the entries. Entry 0, the only one that
+     * boards without pawns map to, starts with a key that
+     * does not map to it, so that it starts out empty.
+     */
+    private final long[] _keys;
+
+    /**
+     * Passed pawns of each entry.
+     */
+    private final long[] _passed;
+
+    /**
+     * Midgame and endgame pawn structure scores of each
+     * entry, for white.
+     */
+    private final int[] _midgame, _endgame;
+
+    /**
+     * Pawn shield score of each entry, for white, and the
+     * king squares it was computed for, packed with a set
+     * bit 14, or 0 if not yet computed.
+     */
+    private final int[] _shield, _kings;
+
+    /**
+     * Number of entries minus one.
+     */
+    private final int _mask;
+
+    /**
+     * Lookups and hits since the table was created or cleared.
+     */
+    private long _probes, _hits;
+}
@@ -0,0 +1,240 @@
+package chessai;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static chessai.Board.*;
+
+/**
+ * Perft (performance test) driver. Walks the move tree of
+ * a position to a fixed depth with Board.makeMove and undo,
+ * counting the leaf nodes. Comparing the counts to published
+ * values checks move generation, and timing the walk measures
+ * its throughput.
+ *
+ * @author Richard Hu
+ */
+public class Perft {
+
+    /**
+     * Standard reference positions in FEN: the initial
+     * position, "Kiwipete", and positions 3 to 6 from the
+     * Chess Programming Wiki.
+     */
+    static final String[] REFERENCE_FENS = {
+            "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+            "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+            "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+            "r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1",
+            "rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8",
+            "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10"
+    };
+
+    /**
+     * Published node counts of the reference positions,
+     * starting from depth 1.
+     */
+    static final long[][] REFERENCE_COUNTS = {
+            {20, 400, 8902, 197281, 4865609, 119060324},
+            {48, 2039, 97862, 4085603, 193690690},
+            {14, 191, 2812, 43238, 674624, 11030083},
+            {6, 264, 9467, 422333, 15833292},
+            {44, 1486, 62379, 2103487, 89941194},
+            {46, 2079, 89890, 3894594, 164075551}
+    };
+
+    /**
+     * Counts the leaf nodes of the move tree of BOARD
+     * to the given depth.
+     *
+     * @param board Board to search. Left unchanged.
+     * @param depth Depth in plies.
+     * @return Number of leaf nodes.
+     */
+    static long perft(Board board, int depth) {
+        return perft(board, depth, new int[Math.max(1, depth)][MAX_MOVES]);
+    }
+
+    /**
+     * Counts the leaf nodes of the move tree of BOARD to the
+     * given depth, generating the moves of each ply into its
+     * own array of MOVES.
+     *
+     * @param board Board to search. Left unchanged.
+     * @param depth Depth in plies.
+     * @param moves Move arrays, one per remaining ply.
+     * @return Number of leaf nodes.
+     */
+    private static long perft(Board board, int depth, int[][] moves) {
+        if (depth == 0) {
+            return 1;
+        }
+        int[] list = moves[depth - 1];
+        int count = board.legalMoves(list);
+        if (depth == 1) {
+            return count;
+        }
+        long nodes = 0;
+        for (int i = 0; i < count; i++) {
+            board.makeMove(list[i]);
+            nodes += perft(board, depth - 1, moves);
+            board.undo();
+        }
+        return nodes;
+    }
+
+    /**
+     * Counts the leaf nodes of the move tree of BOARD to the
+     * given depth, with the root moves split across THREADS
+     * threads.
+     *
+     * @param board Board to search. Left unchanged.
+     * @param depth Depth in plies.
+     * @param threads Number of threads.
+     * @return Number of leaf nodes.
+     */
+    static long perft(Board board, int depth, int threads) {
+        if (depth == 0) {
+            return 1;
+        }
+        long nodes = 0;
+        for (long count : divide(board, depth, threads).values()) {
+            nodes += count;
+        }
+        return nodes;
+    }
+
+    /**
+     * Counts the leaf nodes below each root move of BOARD.
+     * With more than one thread, each root move is searched
+     * by a pool thread on its own copy of BOARD.
+     *
+     * @param board Board to search. Left unchanged.
+     * @param depth Depth in plies, at least 1.
+     * @param threads Number of threads.
+     * @return Leaf node counts keyed by move, with the
+     * promotion piece appended for promotions.
+     */
+    static Map<String, Long> divide(Board board, int depth, int threads) {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        int[] moves = new int[MAX_MOVES];
+        int count = board.legalMoves(moves);
+
+        if (threads <= 1) {
+            for (int i = 0; i < count; i++) {
+                board.makeMove(moves[i]);
+                counts.put(Move.toString(moves[i]), perft(board, depth - 1));
+                board.undo();
+            }
+            return counts;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            Map<String, Future<Long>> futures = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                int move = moves[i];
+                Board copy = board.copy();
+                futures.put(Move.toString(move), pool.submit(() -> {
+                    copy.makeMove(move);
+                    return perft(copy, depth - 1);
+                }));
+            }
+            for (Map.Entry<String, Future<Long>> entry : futures.entrySet()) {
+                counts.put(entry.getKey(), entry.getValue().get());
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IllegalStateException("Perft worker failed.", e);
+        } finally {
+            pool.shutdownNow();
+        }
+        return counts;
+    }
+
+    /**
+     * Runs perft on BOARD at every depth up to DEPTH and prints
+     * node counts and speed. If EXPECTED is not null, each count
+     * is compared against it.
+     *
+     * @param board Board to search.
+     * @param depth Maximum depth.
+     * @param threads Number of threads.
+     * @param expected Expected counts from depth 1, or null.
+     * @return TRUE iff every count matched.
+     */
+    static boolean report(Board board, int depth, int threads, long[] expected) {
+        boolean passed = true;
+        for (int d = 1; d <= depth; d++) {
+            long start = System.nanoTime();
+            long nodes = perft(board, d, threads);
+            long elapsed = Math.max(1, System.nanoTime() - start);
+
+            String result = "";
+            if (expected != null && d <= expected.length) {
+                boolean match = nodes == expected[d - 1];
+                passed &= match;
+                result = match ? "  ok" : "  FAILED (expected " + expected[d - 1] + ")";
+            }
+            System.out.printf("depth %d: %,d nodes in %.3f s (%,d nodes/s)%s%n",
+                    d, nodes, elapsed / 1e9, nodes * 1_000_000_000L / elapsed, result);
+        }
+        return passed;
+    }
+
+    /**
+     * Runs perft from the command line.
+     * Usage: java chessai.Perft [depth] [fen] [--divide]
+     * [--threads N] [--suite]. With --suite, every reference
+     * position is checked up to DEPTH (or the deepest published
+     * count, if smaller).
+     *
+     * @param args Command line arguments.
+     */
+    public static void main(String... args) {
+        int depth = 4, threads = 1;
+        boolean divide = false, suite = false;
+        String fen = REFERENCE_FENS[0];
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--divide" -> divide = true;
+                case "--suite" -> suite = true;
+                case "--threads" -> threads = Integer.parseInt(args[++i]);
+                default -> {
+                    if (args[i].matches("\\d+")) {
+                        depth = Integer.parseInt(args[i]);
+                    } else {
+                        fen = args[i];
+                    }
+                }
+            }
+        }
+
+        if (suite) {
+            boolean passed = true;
+            for (int i = 0; i < REFERENCE_FENS.length; i++) {
+                System.out.println(REFERENCE_FENS[i]);
+                passed &= report(new Board(REFERENCE_FENS[i]),
+                        Math.min(depth, REFERENCE_COUNTS[i].length), threads, REFERENCE_COUNTS[i]);
+            }
+            System.out.println(passed ? "All counts match." : "Some counts do not match.");
+            if (!passed) {
+                System.exit(1);
+            }
+        } else if (divide) {
+            Board board = new Board(fen);
+            long total = 0;
+            for (Map.Entry<String, Long> entry : divide(board, depth, threads).entrySet()) {
+                System.out.println(entry.getKey() + ": " + entry.getValue());
+                total += entry.getValue();
+            }
+            System.out.println("Total: " + total);
+        } else {
+            report(new Board(fen), depth, threads, null);
+        }
+    }
+}
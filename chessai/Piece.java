@@ -8,6 +8,59 @@ package chessai;
  */
 public abstract class Piece {
 
+    /**
+     * Indices of each type of piece, used to
+     * address bitboards.
+     */
+    static final int PAWN = 0,
+            KNIGHT = 1,
+            BISHOP = 2,
+            ROOK = 3,
+            QUEEN = 4,
+            KING = 5;
+
+    /**
+     * The number of types of pieces.
+     */
+    static final int NUM_TYPES = 6;
+
+    /**
+     * Converts a piece abbreviation to its type.
+     *
+     * @param abbr Piece abbreviation.
+     * @return Type of piece, or -1 if ABBR is
+     * not a piece.
+     */
+    static int type(char abbr) {
+        return switch (abbr) {
+            case Pawn.ABBR -> PAWN;
+            case Knight.ABBR -> KNIGHT;
+            case Bishop.ABBR -> BISHOP;
+            case Rook.ABBR -> ROOK;
+            case Queen.ABBR -> QUEEN;
+            case King.ABBR -> KING;
+            default -> -1;
+        };
+    }
+
+    /**
+     * Converts a piece type to its abbreviation.
+     *
+     * @param type Type of piece.
+     * @return Abbreviation of the type.
+     */
+    static char abbr(int type) {
+        return switch (type) {
+            case PAWN -> Pawn.ABBR;
+            case KNIGHT -> Knight.ABBR;
+            case BISHOP -> Bishop.ABBR;
+            case ROOK -> Rook.ABBR;
+            case QUEEN -> Queen.ABBR;
+            case KING -> King.ABBR;
+            default -> throw new IllegalArgumentException("Not a piece type: " + type);
+        };
+    }
+
     /**
      * Returns a copy of this piece.
      *
@@ -31,6 +84,15 @@ public abstract class Piece {
      */
     abstract char symbol();
 
+    /**
+     * Type of this piece.
+     *
+     * @return Index of this piece's type.
+     */
+    int type() {
+        return type(abbr());
+    }
+
     /**
      * Gets the Color of this piece.
      *
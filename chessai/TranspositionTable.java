@@ -0,0 +1,255 @@
+package chessai;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+/**
+ * Fixed-size transposition table shared by search threads
+ * without locks. Entries live in a flat long[] in buckets of
+ * BUCKET_SIZE, each entry being two longs: the position's hash
+ * XORed with the entry's data, and the data itself. A reader
+ * accepts an entry only if the two XOR back to the hash it is
+ * looking for, so an entry torn by a concurrent write is seen
+ * as a miss instead of as another position's data.
+ *
+ * The data of an entry packs its best move, score, depth,
+ * bound type and the age of the search that stored it into
+ * one long, read with the static accessors below.
+ *
+ * @author Richard Hu
+ */
+final class TranspositionTable {
+
+    /**
+     * Bound types of a stored score: an upper bound (the search
+     * failed low), a lower bound (it failed high), or exact.
+     */
+    static final int UPPER = 1, LOWER = 2, EXACT = 3;
+
+    /**
+     * Number of entries per bucket. A bucket fills one
+     * 64-byte cache line.
+     */
+    static final int BUCKET_SIZE = 4;
+
+    /**
+     * Largest table size in megabytes, the most that fits
+     * in a single long[] of a power-of-two length.
+     */
+    static final int MAX_MEGABYTES = 8192;
+
+    /**
+     * Creates a table using at most MEGABYTES megabytes,
+     * rounded down to a power of two.
+     *
+     * @param megabytes Size of the table.
+     */
+    TranspositionTable(int megabytes) {
+        if (megabytes < 1 || megabytes > MAX_MEGABYTES) {
+            throw new IllegalArgumentException("Table size must be between 1 and "
+                    + MAX_MEGABYTES + " MB.");
+        }
+        long longs = Long.highestOneBit(megabytes) * (1L << 20) / Long.BYTES;
+        _table = new long[(int) longs];
+        _bucketMask = longs / (2 * BUCKET_SIZE) - 1;
+    }
+
+    /**
+     * Returns the number of entries in the table.
+     *
+     * @return Capacity.
+     */
+    int capacity() {
+        return _table.length / 2;
+    }
+
+    /**
+     * Empties the table. Must not be called during a search.
+     */
+    void clear() {
+        Arrays.fill(_table, 0);
+        _age = 0;
+    }
+
+    /**
+     * Starts a new search, so that entries stored by earlier
+     * searches are replaced before those of this one.
+     */
+    void newSearch() {
+        _age = (_age + 1) & AGE_MASK;
+    }
+
+    /**
+     * Looks up the position with hash HASH.
+     *
+     * @param hash Zobrist hash of the position.
+     * @return Data of its entry, or 0 if it has none.
+     */
+    long probe(long hash) {
+        int bucket = bucket(hash);
+        for (int i = bucket; i < bucket + 2 * BUCKET_SIZE; i += 2) {
+            long data = (long) ENTRY.getOpaque(_table, i + 1);
+            long key = (long) ENTRY.getOpaque(_table, i);
+            if ((key ^ data) == hash && data != 0) {
+                return data;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Stores the result of searching the position with hash
+     * HASH. An existing entry for the position is overwritten,
+     * keeping its move if MOVE is 0; otherwise the entry of the
+     * bucket that is shallowest and oldest is replaced.
+     *
+     * @param hash Zobrist hash of the position.
+     * @param depth Depth searched, from 0 to 255.
+     * @param bound UPPER, LOWER or EXACT.
+     * @param score Score, between Short.MIN_VALUE and Short.MAX_VALUE.
+     * @param move Best move in up to 24 bits, or 0 if none.
+     */
+    void store(long hash, int depth, int bound, int score, int move) {
+        int bucket = bucket(hash);
+        int replace = bucket;
+        int worst = Integer.MAX_VALUE;
+        for (int i = bucket; i < bucket + 2 * BUCKET_SIZE; i += 2) {
+            long data = (long) ENTRY.getOpaque(_table, i + 1);
+            long key = (long) ENTRY.getOpaque(_table, i);
+            if ((key ^ data) == hash || data == 0) {
+                if (move == 0 && data != 0) {
+                    move = move(data);
+                }
+                replace = i;
+                break;
+            }
+            int relativeAge = (_age - age(data)) & AGE_MASK;
+            int value = depth(data) - 8 * relativeAge;
+            if (value < worst) {
+                worst = value;
+                replace = i;
+            }
+        }
+        long data = (move & MOVE_MASK)
+                | (long) (score & 0xFFFF) << SCORE_SHIFT
+                | (long) (depth & 0xFF) << DEPTH_SHIFT
+                | (long) bound << BOUND_SHIFT
+                | (long) _age << AGE_SHIFT;
+        ENTRY.setOpaque(_table, replace, hash ^ data);
+        ENTRY.setOpaque(_table, replace + 1, data);
+    }
+
+    /**
+     * Estimates how full the table is from the entries of
+     * its first 1000 buckets stored by the current search.
+     *
+     * @return Fullness in permille.
+     */
+    int hashfull() {
+        int buckets = (int) Math.min(1000, _bucketMask + 1);
+        int used = 0;
+        for (int i = 1; i < 2 * BUCKET_SIZE * buckets; i += 2) {
+            long data = (long) ENTRY.getOpaque(_table, i);
+            if (data != 0 && age(data) == _age) {
+                used++;
+            }
+        }
+        return used * 1000 / (BUCKET_SIZE * buckets);
+    }
+
+    /**
+     * Returns the best move of an entry.
+     *
+     * @param data Entry data returned by probe.
+     * @return Move, or 0 if none.
+     */
+    static int move(long data) {
+        return (int) (data & MOVE_MASK);
+    }
+
+    /**
+     * Returns the score of an entry.
+     *
+     * @param data Entry data returned by probe.
+     * @return Score.
+     */
+    static int score(long data) {
+        return (short) (data >>> SCORE_SHIFT);
+    }
+
+    /**
+     * Returns the depth of an entry.
+     *
+     * @param data Entry data returned by probe.
+     * @return Depth.
+     */
+    static int depth(long data) {
+        return (int) (data >>> DEPTH_SHIFT) & 0xFF;
+    }
+
+    /**
+     * Returns the bound type of an entry.
+     *
+     * @param data Entry data returned by probe.
+     * @return UPPER, LOWER or EXACT.
+     */
+    static int bound(long data) {
+        return (int) (data >>> BOUND_SHIFT) & 3;
+    }
+
+    /**
+     * Returns the age of the search that stored an entry.
+     *
+     * @param data Entry data returned by probe.
+     * @return Age.
+     */
+    private static int age(long data) {
+        return (int) (data >>> AGE_SHIFT) & AGE_MASK;
+    }
+
+    /**
+     * Returns the index in _table of the first entry of
+     * the bucket of HASH.
+     *
+     * @param hash Zobrist hash of a position.
+     * @return Index of the bucket.
+     */
+    private int bucket(long hash) {
+        return (int) ((hash & _bucketMask) * 2 * BUCKET_SIZE);
+    }
+
+    /**
+     * Layout of entry data: the move in the lowest 24 bits,
+     * then 16 bits of score, 8 of depth, 2 of bound and 8 of age.
+     */
+    private static final int SCORE_SHIFT = 24, DEPTH_SHIFT = 40,
+            BOUND_SHIFT = 48, AGE_SHIFT = 50;
+
+    /**
+     * Masks of the move and age fields.
+     */
+    private static final int MOVE_MASK = 0xFFFFFF, AGE_MASK = 0xFF;
+
+    /**
+     * Opaque access to the longs of _table, which, unlike
+     * plain access, guarantees that each is read and
+     * written whole.
+     */
+    private static final VarHandle ENTRY = MethodHandles.arrayElementVarHandle(long[].class);
+
+    /**
+     * Entries, as pairs of key XOR data and data.
+     */
+    private final long[] _table;
+
+    /**
+     * Number of buckets minus one.
+     */
+    private final long _bucketMask;
+
+    /**
+     * Age of the current search.
+     */
+    private volatile int _age;
+}
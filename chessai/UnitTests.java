@@ -1,5 +1,17 @@
 package chessai;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -632,4 +644,1076 @@ public class UnitTests {
         }, WHITE);
         assertTrue(b.checkmate());
     }
+
+    @Test
+    public void perftTests() {
+
+        /*
+         * Every reference position, to the deepest
+         * level with at most 100000 nodes.
+         */
+        for (int i = 0; i < Perft.REFERENCE_FENS.length; i++) {
+            Board b = new Board(Perft.REFERENCE_FENS[i]);
+            for (int d = 1; d <= Perft.REFERENCE_COUNTS[i].length
+                    && Perft.REFERENCE_COUNTS[i][d - 1] <= 100000; d++) {
+                assertEquals(Perft.REFERENCE_COUNTS[i][d - 1], Perft.perft(b, d));
+            }
+            assertEquals(Perft.REFERENCE_FENS[i].substring(0, b.toFen().length()), b.toFen());
+        }
+
+        /*
+         * Root split across a thread pool.
+         */
+        assertEquals(8902, Perft.perft(new Board(), 3, 4));
+        assertEquals(2039, Perft.perft(new Board(Perft.REFERENCE_FENS[1]), 2, 4));
+    }
+
+    @Test
+    public void undoCastleTests() {
+        Board b = new Board("r3k2r/8/8/8/3pP3/8/8/R3K2R b KQkq e3");
+        String fen = b.toFen();
+
+        /*
+         * En passant capture and both castles.
+         */
+        assertTrue(b.isLegal(mv("d4-e3")));
+        b.makeMove(mv("d4-e3"));
+        assertNull(b.get(sq("e4")));
+        b.makeMove(mv("e1-g1"));
+        assertEquals(b.get(sq("f1")).abbr(), 'R');
+        b.makeMove(mv("e8-c8"));
+        assertEquals(b.get(sq("d8")).abbr(), 'R');
+        assertEquals("2kr3r/8/8/8/8/4p3/8/R4RK1 w - -", b.toFen());
+
+        b.undo();
+        b.undo();
+        b.undo();
+        assertEquals(fen, b.toFen());
+        assertTrue(b.isLegal(mv("e8-g8")));
+        assertFalse(b.get(sq("e1")).hasMoved());
+        assertFalse(b.get(sq("h1")).hasMoved());
+
+        /*
+         * Histories longer than the initial undo capacity.
+         */
+        b.initialize();
+        for (int i = 0; i < Board.INITIAL_UNDO_CAPACITY; i++) {
+            b.makeMove(mv(i % 2 == 0 ? "g1-f3" : "f3-g1"));
+            b.makeMove(mv(i % 2 == 0 ? "g8-f6" : "f6-g8"));
+        }
+        for (int i = 0; i < 2 * Board.INITIAL_UNDO_CAPACITY; i++) {
+            assertTrue(b.undo());
+        }
+        assertFalse(b.undo());
+        assertEquals(Perft.REFERENCE_FENS[0].substring(0, b.toFen().length()), b.toFen());
+    }
+
+    @Test
+    public void mctsTests() {
+
+        /*
+         * Back rank mate in one, with a playout budget
+         * and with a time budget across several threads.
+         */
+        Board b = new Board("6k1/5ppp/8/8/8/8/5PPP/3R2K1 w - -");
+        assertSame(mv("d1-d8"), new MCTS(1, 0, 2000).bestMove(b));
+        assertSame(mv("d1-d8"), new MCTS(4, 200, 0).bestMove(b));
+        MCTS full = new MCTS(1, 0, 2000);
+        full.setLightRollouts(false);
+        assertSame(mv("d1-d8"), full.bestMove(b));
+        assertEquals("6k1/5ppp/8/8/8/8/5PPP/3R2K1 w - -", b.toFen());
+
+        /*
+         * A move even when the budget runs out before
+         * the workers' first playouts.
+         */
+        for (int i = 0; i < 20; i++) {
+            assertNotNull(new MCTS(8, 1, 0).bestMove(new Board(Perft.REFERENCE_FENS[1])));
+        }
+
+        /*
+         * No moves once the game is over.
+         */
+        b.makeMove(mv("d1-d8"));
+        assertEquals(Board.WHITE_WINS, b.outcome());
+        assertNull(new MCTS(1, 0, 100).bestMove(b));
+    }
+
+    @Test
+    public void puctTests() {
+
+        /*
+         * Back rank mate in one with the heuristic evaluator,
+         * on one thread and with batches from several.
+         */
+        Board b = new Board("6k1/5ppp/8/8/8/8/5PPP/3R2K1 w - -");
+        MCTS search = new MCTS(1, 0, 2000);
+        search.setEvaluator(new HeuristicEvaluator(), 1);
+        assertSame(mv("d1-d8"), search.bestMove(b));
+        search = new MCTS(4, 200, 0);
+        search.setEvaluator(new HeuristicEvaluator(), 4);
+        assertSame(mv("d1-d8"), search.bestMove(b));
+        assertEquals("6k1/5ppp/8/8/8/8/5PPP/3R2K1 w - -", b.toFen());
+
+        /*
+         * With every position a draw, the priors alone
+         * decide where the visits go.
+         */
+        int e4 = Move.encode(sq("e2").index(), sq("e4").index(), -1, -1, 0);
+        search = new MCTS(1, 0, 500);
+        search.setEvaluator((boards, moves, counts, size, values, priors) -> {
+            for (int i = 0; i < size; i++) {
+                values[i] = 0;
+                for (int j = 0; j < counts[i]; j++) {
+                    priors[i][j] = moves[i][j] == e4 ? 1 : 0;
+                }
+            }
+        }, 1);
+        assertSame(mv("e2-e4"), search.bestMove(new Board()));
+    }
+
+    @Test
+    public void evaluationQueueTests() throws InterruptedException {
+        int[] batches = new int[5];
+        Evaluator counter = (boards, moves, counts, size, values, priors) -> {
+            synchronized (batches) {
+                batches[size]++;
+            }
+            for (int i = 0; i < size; i++) {
+                values[i] = counts[i];
+                priors[i][0] = 1;
+            }
+        };
+
+        /*
+         * Threads wait for their batch to fill up, then all
+         * get their own results from one evaluation.
+         */
+        EvaluationQueue queue = new EvaluationQueue(counter, 4, 10_000_000);
+        Thread[] threads = new Thread[4];
+        float[][] results = new float[4][1];
+        for (int i = 0; i < threads.length; i++) {
+            int n = i;
+            threads[i] = new Thread(() -> {
+                float[] priors = new float[1];
+                results[n][0] = queue.evaluate(new Board(), new int[1], n, priors) + priors[0];
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(1, batches[4]);
+        for (int i = 0; i < threads.length; i++) {
+            assertEquals(i + 1, results[i][0], 0);
+        }
+        assertEquals(4, queue.averageBatchSize(), 0);
+
+        /*
+         * A batch that does not fill is evaluated
+         * once the wait times out.
+         */
+        EvaluationQueue timed = new EvaluationQueue(counter, 4, 1000);
+        assertEquals(3, timed.evaluate(new Board(), new int[3], 3, new float[3]), 0);
+        assertEquals(1, batches[1]);
+        assertEquals(1, timed.averageBatchSize(), 0);
+    }
+
+    @Test
+    public void randomMoveTests() {
+        Random random = new Random(2023);
+        int[] moves = new int[Board.MAX_MOVES];
+
+        /*
+         * Random games from the perft positions only
+         * ever make legal moves.
+         */
+        for (String fen : Perft.REFERENCE_FENS) {
+            Board b = new Board(fen);
+            for (int ply = 0; ply < 100; ply++) {
+                int move = b.randomMove(random, moves);
+                if (move == 0) {
+                    assertNotEquals(Board.GAME_ONGOING, b.outcome());
+                    break;
+                }
+                assertTrue(fen, b.isLegal(move));
+                b.makeMove(move);
+            }
+        }
+
+        /*
+         * No move when checkmated or stalemated.
+         */
+        assertEquals(0, new Board("3R2k1/5ppp/8/8/8/8/5PPP/6K1 b - -").randomMove(random, moves));
+        assertEquals(0, new Board("7k/5Q2/6K1/8/8/8/8/8 b - -").randomMove(random, moves));
+    }
+
+    @Test
+    public void nodePoolTests() {
+        NodePool pool = new NodePool(1);
+        assertEquals((1 << 20) / NodePool.NODE_BYTES, pool.capacity());
+        assertEquals(1, pool.size());
+
+        /*
+         * Children are claimed once, allocated together and
+         * published with their count.
+         */
+        assertTrue(pool.claim(0));
+        assertFalse(pool.claim(0));
+        assertEquals(NodePool.EXPANDING, pool.firstChild(0));
+        int first = pool.allocate(3);
+        assertEquals(1, first);
+        for (int i = 0; i < 3; i++) {
+            pool.init(first + i, 100 + i);
+        }
+        pool.publish(0, first, 3);
+        assertEquals(first, pool.firstChild(0));
+        assertEquals(3, pool.childCount(0));
+        assertEquals(102, pool.move(3));
+
+        pool.update(2, 2);
+        pool.update(2, 1);
+        pool.addVirtualLoss(2, 3);
+        assertEquals(2, pool.visits(2));
+        assertEquals(3, pool.value(2));
+        assertEquals(3, pool.virtualLoss(2));
+
+        /*
+         * A full pool refuses allocations, and a reset
+         * leaves only a fresh root.
+         */
+        assertEquals(-1, pool.allocate(pool.capacity()));
+        assertEquals(4, pool.allocate(pool.capacity() - 4));
+        assertEquals(-1, pool.allocate(1));
+        pool.reset();
+        assertEquals(1, pool.size());
+        assertEquals(0, pool.firstChild(0));
+        assertEquals(0, pool.visits(0));
+
+        /*
+         * Compacting keeps only the subtree of the new root,
+         * in order at the front of the pool.
+         */
+        pool.reset();
+        int[][] blocks = {{0, 3}, {2, 2}, {1, 2}, {5, 2}};
+        for (int[] block : blocks) {
+            assertTrue(pool.claim(block[0]));
+            first = pool.allocate(block[1]);
+            for (int i = 0; i < block[1]; i++) {
+                pool.init(first + i, 100 + first + i);
+            }
+            pool.publish(block[0], first, block[1]);
+        }
+        pool.update(5, 2);
+        assertEquals(5, pool.compact(2));
+        assertEquals(5, pool.size());
+        assertEquals(1, pool.firstChild(0));
+        assertEquals(2, pool.childCount(0));
+        assertEquals(104, pool.move(1));
+        assertEquals(105, pool.move(2));
+        assertEquals(0, pool.firstChild(1));
+        assertEquals(3, pool.firstChild(2));
+        assertEquals(108, pool.move(3));
+        assertEquals(109, pool.move(4));
+        assertEquals(2, pool.value(2));
+
+        /*
+         * Proofs are set once per node and kept by compaction.
+         */
+        assertEquals(NodePool.UNPROVEN, pool.proof(3));
+        pool.prove(3, NodePool.PROVEN_LOSS);
+        assertEquals(NodePool.PROVEN_LOSS, pool.proof(3));
+        assertEquals(5, pool.compact(0));
+        assertEquals(NodePool.PROVEN_LOSS, pool.proof(3));
+        pool.init(3, 0);
+        assertEquals(NodePool.UNPROVEN, pool.proof(3));
+
+        /*
+         * A search whose tree outgrows its pool goes on
+         * from the leaves.
+         */
+        Board b = new Board("6k1/5ppp/8/8/8/8/5PPP/3R2K1 w - -");
+        MCTS search = new MCTS(2, 0, 20000, 1);
+        assertSame(mv("d1-d8"), search.bestMove(b));
+        assertTrue(search.nodes() > 1);
+        assertNotNull(search.bestMove(new Board(Perft.REFERENCE_FENS[1])));
+        assertTrue(search.nodes() > 1);
+        assertTrue(search.nodes() <= pool.capacity());
+    }
+
+    @Test
+    public void solverTests() {
+
+        /*
+         * Forced mates are proven, ending the search
+         * long before its playout budget.
+         */
+        MCTS search = new MCTS(1, 0, 1_000_000);
+        assertSame(mv("d1-d8"), search.bestMove(new Board("6k1/5ppp/8/8/8/8/5PPP/3R2K1 w - -")));
+        assertEquals(NodePool.PROVEN_WIN, search.rootProof());
+        assertTrue(search.playouts() < 1000);
+        assertSame(mv("f6-f7"), search.bestMove(new Board("7k/8/5K2/8/8/8/8/1R6 w - -")));
+        assertEquals(NodePool.PROVEN_WIN, search.rootProof());
+        assertTrue(search.playouts() < 1_000_000);
+
+        /*
+         * And so are lost and drawn positions.
+         */
+        assertSame(mv("h8-h7"), search.bestMove(new Board("7k/5K2/8/8/8/8/8/1R6 b - -")));
+        assertEquals(NodePool.PROVEN_LOSS, search.rootProof());
+        assertNull(search.bestMove(new Board("7k/5Q2/6K1/8/8/8/8/8 b - -")));
+        assertEquals(NodePool.PROVEN_DRAW, search.rootProof());
+        search = new MCTS(1, 0, 1000);
+        search.bestMove(new Board());
+        assertEquals(NodePool.UNPROVEN, search.rootProof());
+
+        /*
+         * Promoting to a queen or rook stalemates, but not to a
+         * bishop or knight, which are not searched, so the
+         * draw must not be proven.
+         */
+        search = new MCTS(1, 0, 2000);
+        search.bestMove(new Board("8/1P6/8/8/8/5p1p/p4P1P/k5BK w - -"));
+        assertEquals(NodePool.UNPROVEN, search.rootProof());
+        assertEquals(2000, search.playouts());
+
+        /*
+         * PUCT searches prove mates too.
+         */
+        search = new MCTS(2, 0, 1_000_000);
+        search.setEvaluator(new HeuristicEvaluator(), 2);
+        assertSame(mv("f6-f7"), search.bestMove(new Board("7k/8/5K2/8/8/8/8/1R6 w - -")));
+        assertEquals(NodePool.PROVEN_WIN, search.rootProof());
+    }
+
+    @Test
+    public void treeReuseTests() {
+        MCTS search = new MCTS(2, 0, 1000);
+        Board b = new Board();
+        Move ours = search.bestMove(b);
+        assertEquals(0, search.reused());
+
+        /*
+         * The subtree after our move and the reply is kept
+         * for the next search, and so is the whole tree for
+         * the same position.
+         */
+        b.makeMove(ours);
+        b.makeMove(b.possibleMoves(b.turn()).iterator().next());
+        search.bestMove(b);
+        assertTrue(search.reused() > 0);
+        search.bestMove(b);
+        assertTrue(search.reused() >= 1000);
+
+        /*
+         * Other positions and clear() start afresh.
+         */
+        search.bestMove(new Board(Perft.REFERENCE_FENS[1]));
+        assertEquals(0, search.reused());
+        search.clear();
+        search.bestMove(new Board(Perft.REFERENCE_FENS[1]));
+        assertEquals(0, search.reused());
+    }
+
+    @Test
+    public void hashTests() {
+        Board b = new Board(Perft.REFERENCE_FENS[1]);
+        long initial = b.hash();
+
+        /*
+         * The incremental hash matches a full recomputation
+         * after every move and undo, including castles,
+         * en passant and promotions.
+         */
+        for (Move first : b.possibleMoves(b.turn()).toArray(new Move[0])) {
+            b.makeMove(first);
+            assertEquals(b.computeHash(), b.hash());
+            for (Move second : b.possibleMoves(b.turn()).toArray(new Move[0])) {
+                b.makeMove(second);
+                assertEquals(b.computeHash(), b.hash());
+                b.undo();
+            }
+            b.undo();
+            assertEquals(initial, b.hash());
+        }
+
+        /*
+         * Transpositions hash equally, and the side to move,
+         * castling rights and en passant square all count.
+         */
+        b.initialize();
+        initial = b.hash();
+        b.makeMove(mv("g1-f3"));
+        b.makeMove(mv("g8-f6"));
+        b.makeMove(mv("f3-g1"));
+        b.makeMove(mv("f6-g8"));
+        assertEquals(initial, b.hash());
+        b.makeMove(mv("e2-e4"));
+        b.makeMove(mv("e7-e5"));
+        Board other = new Board();
+        other.makeMove(mv("e2-e3"));
+        other.makeMove(mv("e7-e6"));
+        other.makeMove(mv("e3-e4"));
+        other.makeMove(mv("e6-e5"));
+        assertEquals(other.hash(), b.hash());
+        assertEquals(new Board(b.toFen()).hash(), b.hash());
+        assertNotEquals(new Board("4k3/8/8/8/8/8/8/4K3 w - -").hash(),
+                new Board("4k3/8/8/8/8/8/8/4K3 b - -").hash());
+        assertNotEquals(new Board("r3k3/8/8/8/8/8/8/4K3 b q -").hash(),
+                new Board("r3k3/8/8/8/8/8/8/4K3 b - -").hash());
+        assertNotEquals(new Board("4k3/8/8/8/3pP3/8/8/4K3 b - e3").hash(),
+                new Board("4k3/8/8/8/3pP3/8/8/4K3 b - -").hash());
+        assertEquals(new Board("4k3/8/8/8/4P3/8/8/4K3 b - e3").hash(),
+                new Board("4k3/8/8/8/4P3/8/8/4K3 b - -").hash());
+    }
+
+    @Test
+    public void transpositionTableTests() throws InterruptedException {
+        TranspositionTable tt = new TranspositionTable(1);
+        assertEquals(1 << 16, tt.capacity());
+        long hash = new Board().hash();
+
+        /*
+         * Stored fields come back unchanged, and a store
+         * without a move keeps the old one.
+         */
+        assertEquals(0, tt.probe(hash));
+        tt.store(hash, 7, TranspositionTable.LOWER, -1234, 0xABCDEF);
+        long data = tt.probe(hash);
+        assertEquals(7, TranspositionTable.depth(data));
+        assertEquals(TranspositionTable.LOWER, TranspositionTable.bound(data));
+        assertEquals(-1234, TranspositionTable.score(data));
+        assertEquals(0xABCDEF, TranspositionTable.move(data));
+        tt.store(hash, 9, TranspositionTable.EXACT, 50, 0);
+        assertEquals(0xABCDEF, TranspositionTable.move(tt.probe(hash)));
+        assertEquals(0, tt.probe(hash ^ 1L << 40));
+
+        /*
+         * A full bucket replaces its shallowest entry, and
+         * entries from older searches before that.
+         */
+        long bucketStride = tt.capacity() / TranspositionTable.BUCKET_SIZE;
+        for (int i = 1; i < TranspositionTable.BUCKET_SIZE; i++) {
+            tt.store(hash + i * bucketStride, 10 + i, TranspositionTable.EXACT, 0, 0);
+        }
+        tt.store(hash + 10 * bucketStride, 20, TranspositionTable.EXACT, 0, 0);
+        assertEquals(0, tt.probe(hash));
+        assertNotEquals(0, tt.probe(hash + bucketStride));
+        tt.newSearch();
+        tt.store(hash + 11 * bucketStride, 1, TranspositionTable.EXACT, 0, 0);
+        assertNotEquals(0, tt.probe(hash + 11 * bucketStride));
+        assertEquals(0, tt.probe(hash + bucketStride));
+
+        /*
+         * Threads hammering the same buckets never read an
+         * entry whose data does not belong to its hash.
+         */
+        TranspositionTable shared = new TranspositionTable(1);
+        Thread[] threads = new Thread[4];
+        boolean[] failed = new boolean[1];
+        for (int t = 0; t < threads.length; t++) {
+            long seed = t;
+            threads[t] = new Thread(() -> {
+                Random random = new Random(seed);
+                for (int i = 0; i < 200_000; i++) {
+                    long key = random.nextInt(64) * bucketStride + random.nextInt(4);
+                    int move = (int) (key * 31 & 0xFFFFFF);
+                    if (random.nextBoolean()) {
+                        shared.store(key, random.nextInt(64), TranspositionTable.EXACT,
+                                (int) key, move);
+                    } else {
+                        long found = shared.probe(key);
+                        if (found != 0 && TranspositionTable.move(found) != move) {
+                            failed[0] = true;
+                        }
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertFalse(failed[0]);
+    }
+
+    @Test
+    public void packedMoveTests() {
+        Board b = new Board("r3k2r/1P6/8/3pP3/8/8/8/R3K2R w KQkq d6");
+        int[] moves = new int[Board.MAX_MOVES];
+        int count = b.legalMoves(moves);
+
+        /*
+         * Packed moves carry their flags, captures and
+         * promotions, and agree with the possible moves set.
+         */
+        HashSet<Move> unpacked = new HashSet<>();
+        int promotions = 0, castles = 0, enPassant = 0, captures = 0;
+        for (int i = 0; i < count; i++) {
+            int move = moves[i];
+            assertNotEquals(0, move);
+            unpacked.add(Move.toMove(move));
+            if (Move.getPromotion(move) >= 0) {
+                promotions++;
+                assertTrue(Move.isPossiblePromotion(move));
+            }
+            if (Move.isCastle(move)) {
+                castles++;
+            }
+            if (Move.isEnPassant(move)) {
+                enPassant++;
+                assertEquals(Piece.PAWN, Move.getCaptured(move));
+                assertEquals("e5-d6", Move.toString(move));
+            }
+            if (Move.isCapture(move)) {
+                captures++;
+            }
+        }
+        assertEquals(8, promotions);
+        assertEquals(2, castles);
+        assertEquals(1, enPassant);
+        assertEquals(4 + 1 + 1 + 1, captures);
+        assertEquals(b.possibleMoves(WHITE), unpacked);
+
+        int move = Move.encode(sq("b7").index(), sq("a8").index(),
+                Piece.ROOK, Piece.KNIGHT, 0);
+        assertEquals(sq("b7").index(), Move.getFrom(move));
+        assertEquals(sq("a8").index(), Move.getTo(move));
+        assertEquals(Piece.ROOK, Move.getCaptured(move));
+        assertEquals("b7-a8=N", Move.toString(move));
+
+        /*
+         * Making a packed move is the same as making the Move.
+         */
+        b.makeMove(move);
+        assertEquals("N3k2r/8/8/3pP3/8/8/8/R3K2R b KQk -", b.toFen());
+        b.undo();
+        assertEquals("r3k2r/1P6/8/3pP3/8/8/8/R3K2R w KQkq d6", b.toFen());
+    }
+
+    @Test
+    public void pinAndCheckTests() {
+
+        /*
+         * A pinned rook may only slide along the pin,
+         * and a pinned knight may not move at all.
+         */
+        Board b = new Board("4r1k1/8/8/b7/8/4R3/3N4/4K3 w - -");
+        assertTrue(b.isLegal(mv("e3-e8")));
+        assertTrue(b.isLegal(mv("e3-e5")));
+        assertFalse(b.isLegal(mv("e3-d3")));
+        assertFalse(b.isLegal(mv("d2-f3")));
+        assertFalse(b.isLegal(mv("d2-b1")));
+        assertTrue(b.isLegal(mv("e1-f1")));
+
+        /*
+         * In double check only the king may move; in single
+         * check a piece may block or capture the checker.
+         */
+        b = new Board("4k3/8/8/8/1b6/8/3N4/4K2r w - -");
+        assertFalse(b.isLegal(mv("d2-f1")));
+        assertTrue(b.isLegal(mv("e1-e2")));
+        b = new Board("4k3/8/8/8/8/8/3N4/4K2r w - -");
+        assertTrue(b.isLegal(mv("d2-f1")));
+        assertFalse(b.isLegal(mv("d2-f3")));
+        assertFalse(b.isLegal(mv("e1-f1")));
+
+        /*
+         * An en passant capture that would expose the
+         * king along the row is illegal.
+         */
+        b = new Board("8/8/8/K2pP2r/8/8/8/7k w - d6");
+        assertFalse(b.isLegal(mv("e5-d6")));
+        assertTrue(b.isLegal(mv("e5-e6")));
+    }
+
+    @Test
+    public void alphaBetaTests() {
+        TranspositionTable table = new TranspositionTable(16);
+
+        /*
+         * Mates in one and two, and winning a hanging queen.
+         */
+        Board b = new Board("6k1/5ppp/8/8/8/8/5PPP/3R2K1 w - -");
+        AlphaBeta search = new AlphaBeta(table, 0, 0, 4);
+        assertEquals("d1-d8", Move.toString(search.search(b)));
+        assertEquals(AlphaBeta.MATE - 1, search.score());
+        assertEquals("6k1/5ppp/8/8/8/8/5PPP/3R2K1 w - -", b.toFen());
+
+        b = new Board("7k/8/8/8/8/8/R7/1R4K1 w - -");
+        search = new AlphaBeta(table, 0, 0, 4);
+        assertNotEquals(0, search.search(b));
+        assertEquals(AlphaBeta.MATE - 3, search.score());
+
+        b = new Board("4k3/8/8/3q4/8/8/8/3RK3 w - -");
+        search = new AlphaBeta(table, 0, 0, 3);
+        assertEquals("d1-d5", Move.toString(search.search(b)));
+        assertTrue(search.score() > 0);
+
+        /*
+         * No move once the game is over, and budgets are honoured.
+         */
+        b = new Board("3R2k1/5ppp/8/8/8/8/5PPP/6K1 b - -");
+        assertEquals(0, new AlphaBeta(table, 0, 0, 3).search(b));
+        search = new AlphaBeta(table, 0, 5000, 0);
+        assertNotEquals(0, search.search(new Board()));
+        assertTrue(search.nodes() <= 5000);
+
+        /*
+         * A first iteration cut short keeps its best move,
+         * but neither its score nor its depth, and is not
+         * reported.
+         */
+        boolean partial = false;
+        for (int nodes = 1; nodes <= 200; nodes++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            search = new AlphaBeta(new TranspositionTable(1), 0, nodes, 0);
+            search.setOutput(new PrintStream(out));
+            int move = search.search(new Board(Perft.REFERENCE_FENS[1]));
+            if (search.depth() == 0) {
+                assertEquals(0, search.score());
+                assertEquals(0, out.size());
+                partial |= move != 0;
+            }
+        }
+        assertTrue(partial);
+    }
+
+    @Test
+    public void lazySmpTests() throws InterruptedException {
+
+        /*
+         * Helpers share the table and stop with the main
+         * thread, whose result is returned.
+         */
+        Board b = new Board("7k/8/8/8/8/8/R7/1R4K1 w - -");
+        LazySMP search = new LazySMP(3, new TranspositionTable(16), 0, 0, 5);
+        assertNotEquals(0, search.search(b));
+        assertEquals(AlphaBeta.MATE - 3, search.main().score());
+        assertTrue(search.nodes() >= search.main().nodes());
+        assertEquals("7k/8/8/8/8/8/R7/1R4K1 w - -", b.toFen());
+
+        /*
+         * Searchers keep their move pickers across searches
+         * of new boards, and helpers their threads until the
+         * searcher is closed.
+         */
+        Supplier<Set<Thread>> smpThreads = () -> Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.getName().startsWith("smp-")).collect(Collectors.toSet());
+        Set<Thread> helpers = smpThreads.get();
+        assertEquals(2, helpers.size());
+        assertNotEquals(0, search.search(new Board("1r4k1/r7/8/8/8/8/8/7K b - -")));
+        assertEquals(AlphaBeta.MATE - 3, search.main().score());
+        assertEquals(helpers, smpThreads.get());
+        search.close();
+        for (Thread helper : helpers) {
+            helper.join(10000);
+            assertFalse(helper.isAlive());
+        }
+
+        try (LazySMP timed = new LazySMP(4, new TranspositionTable(16), 200, 0, 0)) {
+            assertNotEquals(0, timed.search(new Board(Perft.REFERENCE_FENS[1])));
+        }
+    }
+
+    @Test
+    public void copyTests() {
+        Board b = new Board(Perft.REFERENCE_FENS[1]);
+        b.makeMove(mv("e1-g1"));
+        Board copy = b.copy();
+
+        /*
+         * A copy holds the same position, but no history,
+         * and moves on it leave the original alone.
+         */
+        assertEquals(b.toFen(), copy.toFen());
+        assertEquals(b.hash(), copy.hash());
+        assertEquals(b.possibleMoves(BLACK), copy.possibleMoves(BLACK));
+        assertFalse(copy.undo());
+        assertNotSame(b.get(sq("g1")), copy.get(sq("g1")));
+        assertTrue(copy.get(sq("g1")).hasMoved());
+
+        copy.makeMove(mv("e8-c8"));
+        assertEquals(copy.computeHash(), copy.hash());
+        assertEquals("r3k2r", b.toFen().substring(0, 5));
+        assertEquals(Perft.perft(b, 2), Perft.perft(b.copy(), 2));
+        assertTrue(b.undo());
+        assertEquals(Perft.REFERENCE_FENS[1].substring(0, b.toFen().length()), b.toFen());
+        assertEquals(Perft.REFERENCE_COUNTS[1][2], Perft.perft(b.copy(), 3));
+    }
+
+    @Test
+    public void pieceListTests() {
+        Board b = new Board(Perft.REFERENCE_FENS[1]);
+
+        /* The lists hold every piece, by color and type. */
+        assertEquals(16, b.pieceCount(WHITE));
+        assertEquals(8, b.pieceCount(WHITE, Piece.PAWN));
+        assertEquals(2, b.pieceCount(BLACK, Piece.BISHOP));
+        assertEquals(1, b.pieceCount(BLACK, Piece.QUEEN));
+        assertEquals(sq("e1").index(), b.pieceSquare(WHITE, Piece.KING, 0));
+
+        /* Captures, promotions and undos keep them in step. */
+        b.makeMove(mv("e2-a6"));
+        b.makeMove(mv("b4-c3"));
+        assertEquals(1, b.pieceCount(BLACK, Piece.BISHOP));
+        assertEquals(1, b.pieceCount(WHITE, Piece.KNIGHT));
+        assertEquals(15, b.getPieces(WHITE).size());
+        for (int i = 0; i < b.pieceCount(WHITE, Piece.KNIGHT); i++) {
+            assertEquals('N', b.get(Square.ALL_SQUARES[b.pieceSquare(WHITE, Piece.KNIGHT, i)]).abbr());
+        }
+        assertTrue(b.undo());
+        assertTrue(b.undo());
+        assertEquals(2, b.pieceCount(BLACK, Piece.BISHOP));
+        assertEquals(2, b.pieceCount(WHITE, Piece.KNIGHT));
+        assertEquals(b.pieceCount(WHITE), b.copy().pieceCount(WHITE));
+
+        /* Insufficient material is read off the counts. */
+        assertEquals(Board.DRAW, new Board("8/8/4k3/8/8/2NN4/8/4K3 w - -").outcome());
+        assertEquals(Board.GAME_ONGOING, new Board("8/8/4k3/8/8/2NB4/8/4K3 w - -").outcome());
+    }
+
+    @Test
+    public void attackMapTests() {
+        Board b = new Board("r3k2r/8/8/8/8/8/8/R3K1r1 w Qkq -");
+
+        /*
+         * Sliders see through the enemy king, so the king
+         * cannot step back along the rook's line.
+         */
+        assertTrue((b.attacks(BLACK) & Bitboards.bit(sq("d1"))) != 0);
+        assertTrue((b.attacks(BLACK) & Bitboards.bit(sq("g8"))) != 0);
+        assertFalse((b.attacks(BLACK) & Bitboards.bit(sq("e2"))) != 0);
+        assertTrue(b.inCheck(WHITE));
+        assertFalse(b.possibleMoves(WHITE).contains(mv("e1-d1")));
+        assertFalse(b.possibleMoves(WHITE).contains(mv("e1-c1")));
+        assertTrue(b.possibleMoves(WHITE).contains(mv("e1-e2")));
+
+        /* Undo restores the maps saved before the move. */
+        long white = b.attacks(WHITE), black = b.attacks(BLACK);
+        b.makeMove(mv("e1-e2"));
+        assertTrue(b.possibleMoves(BLACK).contains(mv("e8-g8")));
+        assertTrue(b.possibleMoves(BLACK).contains(mv("e8-c8")));
+        assertTrue(b.undo());
+        assertEquals(white, b.attacks(WHITE));
+        assertEquals(black, b.attacks(BLACK));
+    }
+
+    @Test
+    public void movePickerTests() {
+        Board b = new Board(Perft.REFERENCE_FENS[1]);
+        int[] legal = new int[Board.MAX_MOVES];
+        int count = b.legalMoves(legal);
+        MovePicker picker = new MovePicker(b, new int[Board.NUM_SQUARES * Board.NUM_SQUARES]);
+
+        /*
+         * Every legal move comes out exactly once, the table
+         * move and killer first, then captures.
+         */
+        int tableMove = legal[count - 1], killer = 0;
+        for (int i = 0; i < count; i++) {
+            if (!Move.isCapture(legal[i]) && legal[i] != tableMove) {
+                killer = legal[i];
+            }
+        }
+        picker.init(tableMove, killer, Move.encode(0, 63, -1, -1, 0), false);
+        HashSet<Integer> picked = new HashSet<>();
+        int first = picker.next(), second = picker.next();
+        assertEquals(tableMove, first);
+        assertTrue(Move.isCapture(second));
+        picked.add(first);
+        picked.add(second);
+        for (int move = picker.next(); move != 0; move = picker.next()) {
+            assertTrue(picked.add(move));
+        }
+        assertEquals(count, picker.picked());
+        assertEquals(count, picked.size());
+
+        /*
+         * Quiescence picks only the captures and promotions
+         * that do not lose material.
+         */
+        picker.init(0, 0, 0, true);
+        int captures = 0;
+        for (int move = picker.next(); move != 0; move = picker.next()) {
+            assertTrue(Move.isCapture(move) || Move.getPromotion(move) >= 0);
+            assertTrue(b.see(move) >= 0);
+            captures++;
+        }
+        assertEquals(3, captures);
+        assertEquals(8, b.tacticalMoves(legal));
+        assertEquals(count - 8, b.quietMoves(legal));
+    }
+
+    @Test
+    public void seeTests() {
+        /* An undefended pawn is won outright. */
+        Board b = new Board("1k1r4/1pp4p/p7/4p3/8/P5P1/1PP4P/2K1R3 w - -");
+        assertEquals(100, b.see(Move.encode(sq("e1").index(), sq("e5").index(), Piece.PAWN, -1, 0)));
+
+        /*
+         * The rook behind the knight on e2 and the queen behind
+         * the bishop on f6 join in by x-ray, and the knight
+         * is lost for a pawn.
+         */
+        b = new Board("1k1r3q/1ppn3p/p4b2/4p3/8/P2N2P1/1PP1R1BP/2K1Q3 w - -");
+        assertEquals(-200, b.see(Move.encode(sq("d3").index(), sq("e5").index(), Piece.PAWN, -1, 0)));
+
+        /* A queen taking a pawn defended by a rook loses. */
+        b = new Board(Perft.REFERENCE_FENS[1]);
+        assertEquals(-800, b.see(Move.encode(sq("f3").index(), sq("h3").index(), Piece.PAWN, -1, 0)));
+        assertEquals(300, b.see(Move.encode(sq("e2").index(), sq("a6").index(), Piece.BISHOP, -1, 0)));
+
+        /* So does one taking a pawn defended by a pawn. */
+        b = new Board("4k3/8/3p4/4p3/8/8/8/4KQ2 w - -");
+        assertEquals(-800, b.see(Move.encode(sq("f1").index(), sq("e5").index(), Piece.PAWN, -1, 0)));
+        assertEquals(0, b.see(Move.encode(sq("f1").index(), sq("f2").index(), -1, -1, 0)));
+
+        /* A king cannot recapture on a defended square. */
+        b = new Board("8/8/8/3k4/4p3/5N2/8/4K2B w - -");
+        assertEquals(100, b.see(Move.encode(sq("f3").index(), sq("e4").index(), Piece.PAWN, -1, 0)));
+    }
+
+    @Test
+    public void evaluationTests() throws IOException {
+        Board b = new Board(Perft.REFERENCE_FENS[3]);
+        int initial = b.evaluate();
+
+        /*
+         * The running score matches a full recomputation after
+         * every move and undo, including castles, en passant
+         * and promotions.
+         */
+        for (Move first : b.possibleMoves(b.turn()).toArray(new Move[0])) {
+            b.makeMove(first);
+            assertEquals(b.computeEvaluation(), b.evaluate());
+            for (Move second : b.possibleMoves(b.turn()).toArray(new Move[0])) {
+                b.makeMove(second);
+                assertEquals(b.computeEvaluation(), b.evaluate());
+                b.undo();
+            }
+            b.undo();
+            assertEquals(initial, b.evaluate());
+        }
+        assertEquals(b.evaluate(), b.copy().evaluate());
+
+        /*
+         * Symmetric positions are level, and the score is
+         * for the side to move.
+         */
+        b.initialize();
+        assertEquals(0, b.evaluate());
+        b.makeMove(mv("e2-e4"));
+        int afterE4 = b.evaluate();
+        b.makeMove(mv("e7-e5"));
+        assertEquals(0, b.evaluate());
+        b = new Board("4k3/8/8/8/8/8/8/Q3K3 w - -");
+        assertTrue(b.evaluate() > 800);
+        b = new Board("4k3/8/8/8/8/8/8/Q3K3 b - -");
+        assertTrue(b.evaluate() < -800);
+
+        /*
+         * Tables saved to a file load back unchanged. Loaded
+         * tables leave other boards alone, and a board switched
+         * to them mid-game keeps its totals right through moves
+         * and undos, as do its copies.
+         */
+        Path saved = Files.createTempFile("pst", ".txt"), changed = Files.createTempFile("pst", ".txt");
+        try {
+            Evaluation.defaultTables().save(saved);
+            b = new Board();
+            b.setEvaluation(Evaluation.load(saved));
+            b.makeMove(mv("e2-e4"));
+            assertEquals(afterE4, b.evaluate());
+
+            Files.writeString(changed, "# Pawns only count.\n"
+                    + "midgame.values 100 0 0 0 0 0\nendgame.values 100 0 0 0 0 0\n");
+            Evaluation pawns = Evaluation.load(changed);
+            Board other = new Board("4k3/pp6/8/8/8/8/8/QR2K3 w - -");
+            b.initialize("4k3/pp6/8/8/8/8/8/QR2K3 w - -");
+            b.makeMove(mv("a1-a7"));
+            b.setEvaluation(pawns);
+            assertEquals(pawns, b.copy().evaluation());
+            assertEquals(b.computeEvaluation(), b.evaluate());
+            b.undo();
+            assertEquals(b.computeEvaluation(), b.evaluate());
+            assertTrue(b.evaluate() < -100);
+            assertTrue(other.evaluate() > 1000);
+            assertEquals(Evaluation.defaultTables(), new Board().evaluation());
+        } finally {
+            Files.delete(saved);
+            Files.delete(changed);
+        }
+    }
+
+    @Test
+    public void pawnTableTests() {
+        Board b = new Board(Perft.REFERENCE_FENS[3]);
+        long initial = b.pawnHash();
+
+        /*
+         * The pawn hash matches a full recomputation after
+         * every move and undo, and only pawn moves, pawn
+         * captures and promotions change it.
+         */
+        for (Move first : b.possibleMoves(b.turn()).toArray(new Move[0])) {
+            char moving = b.get(first.getFrom()).abbr();
+            Piece captured = b.get(first.getTo());
+            b.makeMove(first);
+            assertEquals(b.computePawnHash(), b.pawnHash());
+            if (moving != Pawn.ABBR && (captured == null || captured.abbr() != Pawn.ABBR)) {
+                assertEquals(initial, b.pawnHash());
+            }
+            b.undo();
+            assertEquals(initial, b.pawnHash());
+        }
+        assertEquals(initial, b.copy().pawnHash());
+
+        /*
+         * Doubled, isolated and passed pawns are found, and
+         * the passed pawns are kept with the entry.
+         */
+        PawnTable pawns = new PawnTable(1);
+        b = new Board("4k3/8/8/8/8/8/PP6/4K3 w - -");
+        int level = pawns.endgame(pawns.probe(b));
+        b = new Board("4k3/8/8/8/8/P7/P7/4K3 w - -");
+        int entry = pawns.probe(b);
+        assertTrue(pawns.endgame(entry) < level);
+        assertEquals(Bitboards.bit(sq("a3")), pawns.passed(entry));
+        b = new Board("4k3/p7/8/8/8/8/1P6/4K3 w - -");
+        assertEquals(0, pawns.passed(pawns.probe(b)));
+        b = new Board("4k3/8/8/1P6/8/8/8/4K3 w - -");
+        assertEquals(Bitboards.bit(sq("b5")), pawns.passed(pawns.probe(b)));
+        assertTrue(pawns.endgame(pawns.probe(b)) > 0);
+
+        /*
+         * Positions that differ only in their pieces share an
+         * entry, and the cached score matches a fresh table.
+         */
+        pawns.clear();
+        b = new Board(Perft.REFERENCE_FENS[1]);
+        int score = b.evaluate(pawns);
+        for (Move mv : b.possibleMoves(b.turn()).toArray(new Move[0])) {
+            b.makeMove(mv);
+            assertEquals(b.evaluate(new PawnTable(1)), b.evaluate(pawns));
+            b.undo();
+        }
+        assertEquals(score, b.evaluate(pawns));
+        assertTrue(pawns.hits() > 0);
+        assertTrue(pawns.hitRate() > 0.5);
+        assertEquals(b.possibleMoves(b.turn()).size() + 2L, pawns.probes());
+    }
+
+    @Test
+    public void nnueTests() throws IOException {
+        Random random = new Random(7);
+        int hidden = 8, size1 = 4, size2 = 4;
+        short[] inputWeights = new short[Nnue.FEATURES * hidden], inputBiases = new short[hidden];
+        for (int i = 0; i < inputWeights.length; i++) {
+            inputWeights[i] = (short) (random.nextInt(41) - 20);
+        }
+        for (int i = 0; i < hidden; i++) {
+            inputBiases[i] = (short) random.nextInt(64);
+        }
+        byte[] weights1 = new byte[size1 * 2 * hidden], weights2 = new byte[size2 * size1],
+                outputWeights = new byte[size2];
+        random.nextBytes(weights1);
+        random.nextBytes(weights2);
+        random.nextBytes(outputWeights);
+        Nnue network = new Nnue(hidden, inputWeights, inputBiases, weights1,
+                new int[] {100, -50, 0, 25}, weights2, new int[] {10, 20, -30, 0}, outputWeights, 64);
+
+        /*
+         * The accumulators updated by moves and undos give the
+         * same evaluation as ones built from scratch, including
+         * after castles, en passant, promotions and king moves.
+         */
+        Board b = new Board(Perft.REFERENCE_FENS[3]);
+        b.setNetwork(network);
+        int initial = b.evaluateNetwork();
+        boolean varied = false;
+        for (Move first : b.possibleMoves(b.turn()).toArray(new Move[0])) {
+            b.makeMove(first);
+            int score = b.evaluateNetwork();
+            Board fresh = new Board(b.toFen());
+            fresh.setNetwork(network);
+            assertEquals(fresh.evaluateNetwork(), score);
+            assertEquals(score, b.copy().evaluateNetwork());
+            varied |= score != -initial;
+            for (Move second : b.possibleMoves(b.turn()).toArray(new Move[0])) {
+                b.makeMove(second);
+                fresh.initialize(b.toFen());
+                assertEquals(fresh.evaluateNetwork(), b.evaluateNetwork());
+                b.undo();
+            }
+            b.undo();
+            assertEquals(initial, b.evaluateNetwork());
+        }
+        assertTrue(varied);
+
+        /*
+         * Each side sees the board from its own side, so
+         * mirrored positions score the same.
+         */
+        b = new Board("4k3/8/8/8/3n4/8/4P3/4K3 w - -");
+        b.setNetwork(network);
+        Board mirrored = new Board("4k3/4p3/8/3N4/8/8/8/4K3 b - -");
+        mirrored.setNetwork(network);
+        assertEquals(b.evaluateNetwork(), mirrored.evaluateNetwork());
+
+        /*
+         * Networks read back from a file score the same, and
+         * other files are refused.
+         */
+        Path file = Files.createTempFile("nnue", ".bin");
+        try {
+            network.save(file);
+            Nnue loaded = Nnue.load(file);
+            b.setNetwork(loaded);
+            assertEquals(mirrored.evaluateNetwork(), b.evaluateNetwork());
+            Files.write(file, new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20});
+            try {
+                Nnue.load(file);
+                fail("Loaded a file that is not a network.");
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage().contains("not a network"));
+            }
+        } finally {
+            Files.delete(file);
+        }
+        b.setNetwork(null);
+        assertEquals(b.evaluate(), b.copy().evaluate());
+    }
+
+    @Test
+    public void nnueBoundTests() throws IOException {
+        int hidden = 8, size1 = 4, size2 = 32;
+        short[] inputBiases = new short[hidden];
+        Arrays.fill(inputBiases, (short) Nnue.ACTIVATION_MAX);
+        byte[] weights1 = new byte[size1 * 2 * hidden], weights2 = new byte[size2 * size1],
+                outputWeights = new byte[size2];
+        Arrays.fill(weights1, Byte.MAX_VALUE);
+        Arrays.fill(weights2, Byte.MAX_VALUE);
+        Arrays.fill(outputWeights, Byte.MAX_VALUE);
+        Nnue network = new Nnue(hidden, new short[Nnue.FEATURES * hidden], inputBiases, weights1,
+                new int[size1], weights2, new int[size2], outputWeights, 1 << 20);
+
+        /*
+         * A network with saturated weights scores far beyond
+         * the mate scores, but searches stay below them.
+         */
+        Path file = Files.createTempFile("nnue", ".bin");
+        try {
+            network.save(file);
+            Board b = new Board(Perft.REFERENCE_FENS[1]);
+            b.setNetwork(Nnue.load(file));
+            assertTrue(b.evaluateNetwork() > Short.MAX_VALUE);
+            AlphaBeta search = new AlphaBeta(new TranspositionTable(16), 0, 0, 4);
+            assertNotEquals(0, search.search(b));
+            assertTrue(Math.abs(search.score()) <= AlphaBeta.MAX_EVALUATION);
+            assertTrue(Math.abs(search.score()) < AlphaBeta.MATE - AlphaBeta.MAX_PLY);
+        } finally {
+            Files.delete(file);
+        }
+    }
 }
@@ -0,0 +1,101 @@
+package chessai;
+
+import java.util.SplittableRandom;
+
+import static chessai.Square.*;
+import static chessai.Piece.*;
+
+/**
+ * Random keys for Zobrist hashing. The hash of a position
+ * is the XOR of the keys of every piece on its square, the
+ * side to move, the castling rights and the en passant file,
+ * so a move changes it by XORing out and in only the keys
+ * of what it changed.
+ *
+ * @author Richard Hu
+ */
+final class Zobrist {
+
+    /**
+     * Returns the key of a piece of the given color
+     * and type on the square with index SQ.
+     *
+     * @param color Color of the piece.
+     * @param type Type of the piece.
+     * @param sq Index of the square.
+     * @return Key of the piece.
+     */
+    static long piece(Color color, int type, int sq) {
+        return PIECES[(color.index() * NUM_TYPES + type) * NUM_SQUARES + sq];
+    }
+
+    /**
+     * Returns the key of a set of castling rights.
+     *
+     * @param castling Castling rights as bits.
+     * @return Key of the rights.
+     */
+    static long castling(int castling) {
+        return CASTLING[castling];
+    }
+
+    /**
+     * Returns the key of an en passant square.
+     *
+     * @param sq En passant square, or null.
+     * @return Key of the square's column, or 0 if SQ is null.
+     */
+    static long enPassant(Square sq) {
+        return sq == null ? 0 : EN_PASSANT[sq.col()];
+    }
+
+    /**
+     * Key included when black is to move.
+     */
+    static final long BLACK_TO_MOVE;
+
+    /**
+     * Keys of each piece on each square, indexed by color,
+     * type and square index.
+     */
+    private static final long[] PIECES = new long[2 * NUM_TYPES * NUM_SQUARES];
+
+    /**
+     * Keys of each of the 16 sets of castling rights, each the
+     * XOR of the keys of the individual rights it contains.
+     */
+    private static final long[] CASTLING = new long[16];
+
+    /**
+     * Keys of en passant squares by column.
+     */
+    private static final long[] EN_PASSANT = new long[BOARD_SIZE];
+
+    static {
+        SplittableRandom random = new SplittableRandom(0x5DEECE66DL);
+        for (int i = 0; i < PIECES.length; i++) {
+            PIECES[i] = random.nextLong();
+        }
+        BLACK_TO_MOVE = random.nextLong();
+        long[] rights = new long[4];
+        for (int i = 0; i < rights.length; i++) {
+            rights[i] = random.nextLong();
+        }
+        for (int castling = 0; castling < CASTLING.length; castling++) {
+            for (int i = 0; i < rights.length; i++) {
+                if ((castling & (1 << i)) != 0) {
+                    CASTLING[castling] ^= rights[i];
+                }
+            }
+        }
+        for (int i = 0; i < EN_PASSANT.length; i++) {
+            EN_PASSANT[i] = random.nextLong();
+        }
+    }
+
+    /**
+     * Not instantiable.
+     */
+    private Zobrist() {
+    }
+}